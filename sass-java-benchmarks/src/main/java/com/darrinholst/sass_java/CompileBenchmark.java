@@ -0,0 +1,91 @@
+package com.darrinholst.sass_java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compile synthetic projects of growing size, with a fresh compiler that has to
+ * boot JRuby and load compass first and with one that is already warm.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompileBenchmark {
+    @Param({"10", "100", "1000"})
+    public int partials;
+
+    private SyntheticProject project;
+    private Compiler warm;
+    private Compiler incremental;
+    private int touched;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        project = SyntheticProject.create(partials);
+
+        warm = compiler(false);
+        warm.compile();
+
+        incremental = compiler(true);
+        incremental.compile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() {
+        warm.destroy();
+        incremental.destroy();
+        project.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 5)
+    public void coldCompile() {
+        Compiler cold = compiler(false);
+
+        try {
+            cold.compile();
+        } finally {
+            cold.destroy();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void warmCompile() {
+        warm.compile();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void warmIncrementalCompileOfOnePartial() throws IOException {
+        project.touchPartial(touched++ % partials);
+        incremental.compile();
+    }
+
+    private Compiler compiler(boolean incremental) {
+        Compiler compiler = new Compiler();
+        compiler.setConfigLocation(project.getConfigLocation());
+        compiler.setIncremental(incremental);
+        return compiler;
+    }
+}
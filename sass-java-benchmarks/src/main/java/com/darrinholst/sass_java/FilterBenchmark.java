@@ -0,0 +1,197 @@
+package com.darrinholst.sass_java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per request overhead of {@link SassCompilingFilter}: when no compile is due, and when
+ * requests keep running into compiles, which take {@code compileMillis}, so they
+ * have to wait. Compass isn't involved, the compiler only sleeps.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterBenchmark {
+    @Param({"1", "10"})
+    public long compileMillis;
+
+    @Param({"false", "true"})
+    public boolean serveStale;
+
+    private final SteppingClock clock = new SteppingClock();
+    private SassCompilingFilter filter;
+    private File root;
+    private HttpServletRequest page;
+    private HttpServletRequest stylesheet;
+    private HttpServletResponse response;
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void initFilter() throws IOException, ServletException {
+        root = File.createTempFile("sass-java-benchmark", "");
+        root.delete();
+        new File(root, "WEB-INF/sass").mkdirs();
+        new File(root, "WEB-INF/sass/config.rb").createNewFile();
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(SassCompilingFilter.SERVE_STALE_PARAM, String.valueOf(serveStale));
+
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("getRealPath", root.getAbsolutePath());
+        context.put("getMajorVersion", 3);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("getServletContext", stub(ServletContext.class, context));
+
+        filter = new SassCompilingFilter();
+        filter.setCompiler(new SleepingCompiler(compileMillis));
+        filter.init(stub(FilterConfig.class, config, parameters));
+
+        page = request("/index.html");
+        stylesheet = request("/css/screen.css");
+        response = stub(HttpServletResponse.class, new HashMap<String, Object>());
+        chain = stub(FilterChain.class, new HashMap<String, Object>());
+
+        Clock.setDelegate(clock);
+    }
+
+    @TearDown(Level.Trial)
+    public void destroyFilter() {
+        Clock.setDelegate(new Clock());
+        filter.destroy();
+        new File(root, "WEB-INF/sass/config.rb").delete();
+        new File(root, "WEB-INF/sass").delete();
+        new File(root, "WEB-INF").delete();
+        root.delete();
+    }
+
+    @Benchmark
+    public void withoutCompile() throws IOException, ServletException {
+        filter.doFilter(page, response, chain);
+    }
+
+    @Benchmark
+    public void pageWithCompileInFlight() throws IOException, ServletException {
+        clock.step();
+        filter.doFilter(page, response, chain);
+    }
+
+    @Benchmark
+    public void stylesheetWithCompileInFlight() throws IOException, ServletException {
+        clock.step();
+        filter.doFilter(stylesheet, response, chain);
+    }
+
+    private static HttpServletRequest request(String uri) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getRequestURI", uri);
+        answers.put("getMethod", "GET");
+        return stub(HttpServletRequest.class, answers);
+    }
+
+    private static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return stub(type, answers, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * A servlet api object answering the given methods by name, with getInitParameter
+     * looked up in the parameters, and null, false or zero for everything else.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, final Map<String, Object> answers, final Map<String, Object> parameters) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getInitParameter")) {
+                    return parameters.get(args[0]);
+                }
+
+                if (answers.containsKey(method.getName())) {
+                    return answers.get(method.getName());
+                }
+
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    private static class SleepingCompiler extends Compiler {
+        private final long millis;
+
+        SleepingCompiler(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public void compile() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public File getSassDirectory() {
+            return new File(".");
+        }
+    }
+
+    /**
+     * Only moves when a benchmark steps it, each step past the dwell so a compile is due.
+     */
+    private static class SteppingClock extends Clock {
+        private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+
+        void step() {
+            now.addAndGet(1000);
+        }
+
+        @Override
+        protected Date getCurrentTime() {
+            return new Date(now.get());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What creating a runtime costs: a bare JRuby container, and one that has loaded
+ * compass the way {@link Compiler} does before its first compile.
+ */
+@State(Scope.Benchmark)
+@Fork(3)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RuntimeBenchmark {
+    private static final String INITIALIZATION_SCRIPT = "require 'compass'\nrequire 'compass/sass_compiler'\n";
+
+    @Param({"SINGLETHREAD", "THREADSAFE"})
+    public LocalContextScope scope;
+
+    @Benchmark
+    public Object scriptingContainer() {
+        ScriptingContainer container = new ScriptingContainer(scope);
+
+        try {
+            return container.runScriptlet("1 + 1");
+        } finally {
+            container.terminate();
+        }
+    }
+
+    @Benchmark
+    public void compassRuntime() {
+        RuntimePool pool = new RuntimePool(1, scope, INITIALIZATION_SCRIPT);
+
+        try {
+            pool.warmUp();
+        } finally {
+            pool.terminate();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A throwaway compass project with a given number of partials, spread over a handful
+ * of stylesheets that each import a share of them.
+ */
+public class SyntheticProject {
+    private static final int PARTIALS_PER_STYLESHEET = 50;
+
+    private final File root;
+
+    private SyntheticProject(File root) {
+        this.root = root;
+    }
+
+    public static SyntheticProject create(int partials) throws IOException {
+        File root = File.createTempFile("sass-java-benchmark", "");
+        root.delete();
+
+        SyntheticProject project = new SyntheticProject(root);
+        project.write(partials);
+        return project;
+    }
+
+    public File getConfigLocation() {
+        return new File(root, "config.rb");
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Changes one partial so the stylesheet importing it is stale.
+     */
+    public void touchPartial(int index) throws IOException {
+        write("sass/partials/_partial" + index + ".scss", partial(index) + "\n.touched-" + System.nanoTime() + " { color: red; }\n");
+    }
+
+    public void delete() {
+        delete(root);
+    }
+
+    private void write(int partials) throws IOException {
+        write("config.rb", "sass_dir = 'sass'\ncss_dir = 'css'\n");
+        write("sass/_variables.scss", "$base-color: #336699;\n$spacing: 4px;\n");
+
+        int stylesheets = Math.max(1, (partials + PARTIALS_PER_STYLESHEET - 1) / PARTIALS_PER_STYLESHEET);
+        StringBuilder[] imports = new StringBuilder[stylesheets];
+
+        for (int i = 0; i < stylesheets; i++) {
+            imports[i] = new StringBuilder("@import 'variables';\n@import 'compass/css3';\n");
+        }
+
+        for (int i = 0; i < partials; i++) {
+            write("sass/partials/_partial" + i + ".scss", partial(i));
+            imports[i % stylesheets].append("@import 'partials/partial").append(i).append("';\n");
+        }
+
+        for (int i = 0; i < stylesheets; i++) {
+            write("sass/stylesheet" + i + ".scss", imports[i].toString());
+        }
+    }
+
+    private String partial(int index) {
+        return "@mixin box-" + index + "($size) {\n"
+                + "  width: $size * " + (index % 7 + 1) + ";\n"
+                + "  padding: $spacing;\n"
+                + "}\n"
+                + ".block-" + index + " {\n"
+                + "  @include box-" + index + "(10px);\n"
+                + "  color: darken($base-color, " + (index % 20) + "%);\n"
+                + "  @include border-radius(" + (index % 5) + "px);\n"
+                + "  &:hover { color: lighten($base-color, 10%); }\n"
+                + "  .element-" + index + " { margin: $spacing * 2; }\n"
+                + "}\n";
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
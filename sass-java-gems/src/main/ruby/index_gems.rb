@@ -0,0 +1,24 @@
+# Writes sass-java-gems.index into the bundle, listing the require paths of every
+# bundled gem and every file sass-java has to unpack to load the gems from disk
+# instead of from inside the jar, see com.darrinholst.sass_java.GemBundle.
+#
+# usage: index_gems.rb <bundle directory>
+
+require 'rubygems'
+
+root = ARGV[0]
+
+Dir.chdir(root) do
+  File.open('sass-java-gems.index', 'w') do |index|
+    index.puts '# written by index_gems.rb'
+
+    Dir['specifications/*.gemspec'].sort.each do |gemspec|
+      spec = Gem::Specification.load(gemspec)
+      spec.require_paths.each { |path| index.puts "load_path gems/#{spec.full_name}/#{path}" }
+    end
+
+    Dir['{gems,specifications}/**/*'].sort.each do |file|
+      index.puts "file #{File.size(file)} #{file}" if File.file?(file)
+    end
+  end
+end
@@ -4,6 +4,7 @@ import org.jruby.embed.ScriptingContainer;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 public class GemsIT {
     @Test
@@ -15,5 +16,9 @@ public class GemsIT {
     public void correctCompassIsPackaged() {
         assertEquals("1.0.1", new ScriptingContainer().runScriptlet("require 'compass';Compass::VERSION"));
     }
-}
 
+    @Test
+    public void gemsAreIndexed() {
+        assertNotNull(getClass().getClassLoader().getResource("sass-java-gems.index"));
+    }
+}
@@ -0,0 +1,177 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * What a project looked like after its last successful compile: the settings it was
+ * compiled with and a fingerprint of every source and output file. Kept in a properties
+ * file under target/ so the next build can tell whether there is anything to do.
+ */
+class BuildState {
+    private static final String SETTINGS = "settings";
+    private static final String SASS_DIRECTORY = "sassDirectory";
+    private static final String CSS_DIRECTORY = "cssDirectory";
+    private static final String IMPORT_PATHS = "importPaths";
+    private static final String SOURCE = "source.";
+    private static final String OUTPUT = "output.";
+
+    private final String settings;
+    private final File sassDirectory;
+    private final File cssDirectory;
+    private final List<File> importPaths;
+    private final Map<File, Fingerprint> sources;
+    private final Map<File, Fingerprint> outputs;
+
+    BuildState(String settings, File sassDirectory, File cssDirectory, List<File> importPaths, Map<File, Fingerprint> sources, Map<File, Fingerprint> outputs) {
+        this.settings = settings;
+        this.sassDirectory = sassDirectory;
+        this.cssDirectory = cssDirectory;
+        this.importPaths = importPaths;
+        this.sources = sources;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Returns null when there is no usable state, which just means compiling everything.
+     */
+    static BuildState load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            Properties properties = new Properties();
+            InputStream input = new FileInputStream(file);
+
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            File sassDirectory = new File(properties.getProperty(SASS_DIRECTORY));
+            File cssDirectory = new File(properties.getProperty(CSS_DIRECTORY));
+
+            return new BuildState(properties.getProperty(SETTINGS), sassDirectory, cssDirectory,
+                    CompileServer.splitPaths(properties.getProperty(IMPORT_PATHS)), fingerprints(properties, SOURCE, sassDirectory), fingerprints(properties, OUTPUT, cssDirectory));
+        } catch (RuntimeException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(SETTINGS, settings);
+        properties.setProperty(SASS_DIRECTORY, sassDirectory.getPath());
+        properties.setProperty(CSS_DIRECTORY, cssDirectory.getPath());
+        properties.setProperty(IMPORT_PATHS, CompileServer.joinPaths(importPaths));
+        put(properties, SOURCE, sassDirectory, sources);
+        put(properties, OUTPUT, cssDirectory, outputs);
+
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            properties.store(output, "sass-java build state");
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, file);
+    }
+
+    String getSettings() {
+        return settings;
+    }
+
+    File getSassDirectory() {
+        return sassDirectory;
+    }
+
+    File getCssDirectory() {
+        return cssDirectory;
+    }
+
+    List<File> getImportPaths() {
+        return importPaths;
+    }
+
+    DependencyGraph getSources() throws IOException {
+        return DependencyGraph.restore(sassDirectory, sources);
+    }
+
+    /**
+     * True when every file written by the last compile is still there untouched and
+     * nothing else has appeared next to them.
+     */
+    boolean outputsIntact() {
+        return outputs.equals(scanFiles(cssDirectory));
+    }
+
+    /**
+     * Modification time and size of every file under a directory, hidden ones excepted.
+     */
+    static Map<File, Fingerprint> scanFiles(File directory) {
+        Map<File, Fingerprint> fingerprints = new TreeMap<File, Fingerprint>();
+        scanFiles(directory, fingerprints);
+        return fingerprints;
+    }
+
+    private static void scanFiles(File directory, Map<File, Fingerprint> fingerprints) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.getName().startsWith(".")) {
+                continue;
+            }
+
+            if (file.isDirectory()) {
+                scanFiles(file, fingerprints);
+            } else {
+                fingerprints.put(file, new Fingerprint(file.lastModified(), file.length(), null));
+            }
+        }
+    }
+
+    private static Map<File, Fingerprint> fingerprints(Properties properties, String prefix, File directory) {
+        Map<File, Fingerprint> fingerprints = new TreeMap<File, Fingerprint>();
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                File file = new File(key.substring(prefix.length()));
+                fingerprints.put(file.isAbsolute() ? file : new File(directory, file.getPath()), Fingerprint.parse(properties.getProperty(key)));
+            }
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Files under the directory are recorded relative to it, anything else, e.g. a
+     * partial imported from outside the sass directory, with its absolute path.
+     */
+    private static void put(Properties properties, String prefix, File directory, Map<File, Fingerprint> fingerprints) {
+        String root = directory.getPath() + File.separator;
+
+        for (Map.Entry<File, Fingerprint> entry : fingerprints.entrySet()) {
+            String path = entry.getKey().getPath();
+            properties.setProperty(prefix + (path.startsWith(root) ? path.substring(root.length()) : path), entry.getValue().toString());
+        }
+    }
+}
@@ -3,28 +3,550 @@ package com.darrinholst.sass_java;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.jruby.embed.LocalContextScope;
+import org.sonatype.plexus.build.incremental.BuildContext;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
-@Mojo(name = "compile", defaultPhase = LifecyclePhase.COMPILE, requiresDirectInvocation = false)
+@Mojo(name = "compile", defaultPhase = LifecyclePhase.COMPILE, requiresDirectInvocation = false, threadSafe = true)
 public class SassJavaMojo extends AbstractMojo {
-    private Compiler compiler = new Compiler();
-
     @Parameter(defaultValue = "${project.basedir}", readonly = true)
     private File basedir;
 
     @Parameter(defaultValue = "${project.basedir}/src/main/webapp/WEB-INF/sass/config.rb", property = "sass-java.configFile")
     private File config;
 
+    /**
+     * Compile several compass projects instead of the single {@code config}.
+     */
+    @Parameter
+    private List<File> configs;
+
+    /**
+     * Glob patterns, relative to the project base directory, of more {@code config.rb}
+     * files to compile, e.g. {@code src/main/webapp/themes/&#42;/config.rb}.
+     */
+    @Parameter
+    private List<String> configIncludes;
+
+    /**
+     * How many projects to compile at the same time, each in its own JRuby runtimes.
+     * Defaults to the number of available processors.
+     */
+    @Parameter(defaultValue = "0", property = "sass-java.threads")
+    private int threads;
+
+    /**
+     * The {@link SassEngine} to compile with, any one on the plugin's classpath.
+     */
+    @Parameter(defaultValue = Compiler.DEFAULT_ENGINE, property = "sass-java.engine")
+    private String engine;
+
+    /**
+     * Unpack the gems to the temp directory once and load them from there instead of
+     * from inside the jar, which makes starting a runtime a lot quicker.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.unpackGems")
+    private boolean unpackGems;
+
+    /**
+     * Where sass keeps parsed stylesheets between builds, e.g. a directory CI keeps
+     * between runs, instead of the .sass-cache next to each config.rb. Any number of
+     * builds can share it.
+     */
+    @Parameter(property = "sass-java.sassCacheLocation")
+    private File sassCacheLocation;
+
+    /**
+     * Once the sass cache holds more than this, what was cached longest ago is removed.
+     */
+    @Parameter(defaultValue = "104857600", property = "sass-java.sassCacheMaxBytes")
+    private long sassCacheMaxBytes;
+
+    @Parameter(defaultValue = "1", property = "sass-java.runtimePoolSize")
+    private int runtimePoolSize;
+
+    @Parameter(defaultValue = "SINGLETHREAD", property = "sass-java.localContextScope")
+    private LocalContextScope localContextScope;
+
+    /**
+     * How many runtimes of the pool compile stylesheets at the same time, 0 for as many
+     * as there are processors.
+     */
+    @Parameter(defaultValue = "0", property = "sass-java.parallelism")
+    private int parallelism;
+
+    @Parameter(defaultValue = "false", property = "sass-java.precompress")
+    private boolean precompress;
+
+    /**
+     * Minified bundles of compiled stylesheets to write after each compile, declared as
+     * {@code site.css=base.css,layout.css;admin.css=base.css,admin/users.css}.
+     */
+    @Parameter(property = "sass-java.bundles")
+    private String bundles;
+
+    @Parameter(defaultValue = "false", property = "sass-java.fingerprint")
+    private boolean fingerprint;
+
+    /**
+     * Compile into a staging directory and move the output into place once complete, so
+     * a running server never sees missing or half written stylesheets.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.atomicPublish")
+    private boolean atomicPublish;
+
+    /**
+     * How many earlier outputs to keep for rolling back, with atomicPublish.
+     */
+    @Parameter(defaultValue = "0", property = "sass-java.retainedGenerations")
+    private int retainedGenerations;
+
+    /**
+     * Whether to write source maps, leaves it to the {@code sourcemap} setting of
+     * config.rb when not set.
+     */
+    @Parameter(property = "sass-java.sourceMaps")
+    private Boolean sourceMaps;
+
+    /**
+     * Embed each source map in its stylesheet as a data URI instead of a separate file.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.sourceMapsInline")
+    private boolean sourceMapsInline;
+
+    /**
+     * Include the sass sources themselves in the source maps.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.sourceMapsEmbedSources")
+    private boolean sourceMapsEmbedSources;
+
+    /**
+     * Where the state of the last compile is kept to skip compiling when nothing changed.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/sass-java", property = "sass-java.stateDirectory")
+    private File stateDirectory;
+
+    /**
+     * Compile everything even when the last compile is still up to date.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.force")
+    private boolean force;
+
+    /**
+     * Compile through a long lived compile server that keeps compass loaded between
+     * builds, starting it when it isn't running yet.
+     */
+    @Parameter(defaultValue = "false", property = "sass-java.daemon")
+    private boolean daemon;
+
+    @Parameter(defaultValue = "${user.home}/.sass-java/daemon.properties", property = "sass-java.daemonFile")
+    private File daemonFile;
+
+    /**
+     * Milliseconds the compile server stays up without any compiles.
+     */
+    @Parameter(defaultValue = "1800000", property = "sass-java.daemonIdleTimeout")
+    private long daemonIdleTimeout;
+
+    @Component
+    private BuildContext buildContext;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
-        if (config.exists()) {
-            compiler.setConfigLocation(config);
-            compiler.compile();
+        List<File> projects = findConfigs();
+
+        if (projects.size() == 1) {
+            compile(projects.get(0));
         } else {
-            throw new MojoExecutionException("Configuration does not exist at " + config.getAbsolutePath());
+            compileConcurrently(projects);
+        }
+    }
+
+    private List<File> findConfigs() throws MojoExecutionException {
+        if ((configs == null || configs.isEmpty()) && (configIncludes == null || configIncludes.isEmpty())) {
+            return Collections.singletonList(existing(config));
         }
+
+        TreeSet<File> found = new TreeSet<File>();
+
+        if (configs != null) {
+            for (File file : configs) {
+                found.add(existing(file).getAbsoluteFile());
+            }
+        }
+
+        if (configIncludes != null) {
+            found.addAll(glob(configIncludes));
+        }
+
+        if (found.isEmpty()) {
+            throw new MojoExecutionException("No configuration matches " + configIncludes + " in " + basedir.getAbsolutePath());
+        }
+
+        return new ArrayList<File>(found);
+    }
+
+    private File existing(File file) throws MojoExecutionException {
+        if (!file.exists()) {
+            throw new MojoExecutionException("Configuration does not exist at " + file.getAbsolutePath());
+        }
+
+        return file;
+    }
+
+    private List<File> glob(List<String> patterns) throws MojoExecutionException {
+        final Path root = basedir.toPath().toAbsolutePath();
+        final List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+        final List<File> matches = new ArrayList<File>();
+
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    Path relative = root.relativize(file);
+
+                    for (PathMatcher matcher : matchers) {
+                        if (matcher.matches(relative)) {
+                            matches.add(file.toFile());
+                            break;
+                        }
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to search for configurations in " + root, e);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Every project is compiled even when others fail, failures are then reported
+     * together in the order of the configurations.
+     */
+    private void compileConcurrently(List<File> projects) throws MojoFailureException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount(projects.size()));
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        try {
+            for (final File project : projects) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        compile(project);
+                        return null;
+                    }
+                }));
+            }
+
+            StringBuilder failures = new StringBuilder();
+
+            for (int i = 0; i < projects.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    getLog().error("Compiling " + projects.get(i).getAbsolutePath() + " failed", e.getCause());
+                    failures.append("\n  ").append(projects.get(i).getAbsolutePath()).append(": ").append(e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoFailureException("Interrupted while compiling sass");
+                }
+            }
+
+            if (failures.length() > 0) {
+                throw new MojoFailureException("Sass compilation failed for:" + failures);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A SINGLETON scope shares one ruby runtime, and so one compass configuration,
+     * across the whole JVM, so projects can't be compiled side by side with it.
+     */
+    private int threadCount(int projects) {
+        if (localContextScope == LocalContextScope.SINGLETON) {
+            getLog().warn("Compiling projects one at a time because localContextScope is SINGLETON");
+            return 1;
+        }
+
+        int available = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(available, projects));
+    }
+
+    /**
+     * Nothing is compiled when the sources, the configuration, the gems and the outputs
+     * are all as the last compile left them. When only sources changed, and the outputs
+     * are intact, just the stylesheets affected by the changes are compiled.
+     */
+    private void compile(File project) {
+        File stateFile = stateFileFor(project);
+        String settings = settingsOf(project);
+        BuildState previous = force ? null : BuildState.load(stateFile);
+        DependencyGraph previousSources = null;
+
+        try {
+            if (previous != null && settings.equals(previous.getSettings()) && previous.outputsIntact()) {
+                if (!hasDelta(project, previous)) {
+                    getLog().info("Sass for " + project.getAbsolutePath() + " is up to date");
+                    return;
+                }
+
+                previousSources = previous.getSources();
+                DependencyGraph sources = DependencyGraph.scan(previous.getSassDirectory(), previous.getImportPaths(), project, false);
+
+                if (sources.getStaleEntryPoints(previousSources).isEmpty() && sources.getRemovedEntryPoints(previousSources).isEmpty()) {
+                    getLog().info("Sass for " + project.getAbsolutePath() + " is up to date");
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            getLog().debug("Unable to check whether sass is up to date, compiling everything", e);
+            previousSources = null;
+        }
+
+        getLog().info("Compiling sass for " + project.getAbsolutePath());
+
+        if (previousSources == null) {
+            stateFile.delete();
+        }
+
+        if (daemon && compileOnServer(project, previousSources != null, stateFile, settings)) {
+            return;
+        }
+
+        Compiler compiler = createCompiler(project);
+
+        try {
+            if (previousSources != null) {
+                compiler.setIncremental(true);
+                compiler.setPreviousGraph(previousSources);
+            }
+
+            compiler.compile();
+            saveState(project, stateFile, settings, compiler.getSassDirectory(), compiler.getCssDirectory(), compiler.getImportPaths());
+        } finally {
+            compiler.destroy();
+        }
+    }
+
+    /**
+     * Returns false when no compile server could be reached or started, a compile that
+     * fails on the server fails the build just like one in process would.
+     */
+    private boolean compileOnServer(File project, boolean incremental, File stateFile, String settings) {
+        Properties request = new Properties();
+        request.setProperty(CompileServer.CONFIG, project.getAbsolutePath());
+        request.setProperty(CompileServer.ENGINE, engine);
+        request.setProperty(CompileServer.UNPACK_GEMS, String.valueOf(unpackGems));
+
+        if (sassCacheLocation != null) {
+            request.setProperty(CompileServer.SASS_CACHE_LOCATION, sassCacheLocation.getAbsolutePath());
+            request.setProperty(CompileServer.SASS_CACHE_MAX_BYTES, String.valueOf(sassCacheMaxBytes));
+        }
+
+        request.setProperty(CompileServer.RUNTIME_POOL_SIZE, String.valueOf(runtimePoolSize));
+        request.setProperty(CompileServer.LOCAL_CONTEXT_SCOPE, localContextScope.name());
+        request.setProperty(CompileServer.PARALLELISM, String.valueOf(parallelism));
+        request.setProperty(CompileServer.INCREMENTAL, String.valueOf(incremental));
+        request.setProperty(CompileServer.FINGERPRINT, String.valueOf(fingerprint));
+        request.setProperty(CompileServer.PRECOMPRESS, String.valueOf(precompress));
+
+        if (bundles != null) {
+            request.setProperty(CompileServer.BUNDLES, bundles);
+        }
+
+        request.setProperty(CompileServer.ATOMIC_PUBLISH, String.valueOf(atomicPublish));
+        request.setProperty(CompileServer.RETAINED_GENERATIONS, String.valueOf(retainedGenerations));
+        request.setProperty(CompileServer.SOURCE_MAPS_INLINE, String.valueOf(sourceMapsInline));
+        request.setProperty(CompileServer.SOURCE_MAPS_EMBED_SOURCES, String.valueOf(sourceMapsEmbedSources));
+
+        if (sourceMaps != null) {
+            request.setProperty(CompileServer.SOURCE_MAPS, String.valueOf(sourceMaps));
+        }
+
+        CompileClient client = new CompileClient(daemonFile);
+        client.setIdleTimeout(daemonIdleTimeout);
+        Properties response = client.compile(request);
+
+        if (response == null) {
+            getLog().info("No sass compile server available, compiling in process");
+            return false;
+        }
+
+        saveState(project, stateFile, settings, new File(response.getProperty(CompileServer.SASS_DIRECTORY)), new File(response.getProperty(CompileServer.CSS_DIRECTORY)),
+                CompileServer.splitPaths(response.getProperty(CompileServer.IMPORT_PATHS)));
+        return true;
+    }
+
+    /**
+     * Inside an IDE the build context already knows which files changed, which saves
+     * scanning the sass directory at all. Sources imported from outside of it count too.
+     */
+    private boolean hasDelta(File project, BuildState previous) throws IOException {
+        if (!buildContext.isIncremental() || buildContext.hasDelta(project) || buildContext.hasDelta(previous.getSassDirectory())) {
+            return true;
+        }
+
+        for (File path : previous.getImportPaths()) {
+            if (buildContext.hasDelta(path)) {
+                return true;
+            }
+        }
+
+        DependencyGraph sources = previous.getSources();
+
+        for (File source : sources.getFingerprints().keySet()) {
+            if (!sources.isInSassDirectory(source) && buildContext.hasDelta(source)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void saveState(File project, File stateFile, String settings, File sassDirectory, File cssDirectory, List<File> importPaths) {
+        try {
+            File css = cssDirectory.getCanonicalFile();
+            DependencyGraph sources = DependencyGraph.scan(sassDirectory, importPaths, project, false);
+
+            new BuildState(settings, sources.getSassDirectory(), css, sources.getImportPaths(),
+                    sources.getFingerprints(), BuildState.scanFiles(css)).save(stateFile);
+
+            buildContext.refresh(css);
+        } catch (IOException e) {
+            getLog().warn("Unable to record sass build state in " + stateFile.getAbsolutePath(), e);
+        }
+    }
+
+    private File stateFileFor(File project) {
+        String path = project.getAbsoluteFile().toURI().getPath();
+        return new File(stateDirectory, Fingerprint.sha1(path.getBytes()).substring(0, 12) + ".properties");
+    }
+
+    /**
+     * Everything besides the sass sources that changes what a compile produces.
+     */
+    private String settingsOf(File project) {
+        String config;
+
+        try {
+            config = Fingerprint.sha1(project);
+        } catch (IOException e) {
+            config = "unreadable";
+        }
+
+        return "config=" + config
+                + ";gems=" + gemVersions()
+                + ";engine=" + engine
+                + ";fingerprint=" + fingerprint
+                + ";precompress=" + precompress
+                + ";bundles=" + bundles
+                + ";sourceMaps=" + sourceMaps
+                + ";sourceMapsInline=" + sourceMapsInline
+                + ";sourceMapsEmbedSources=" + sourceMapsEmbedSources;
+    }
+
+    /**
+     * The gem specifications bundled in sass-java-gems, whose file names carry the
+     * versions, e.g. compass-1.0.1.gemspec.
+     */
+    private String gemVersions() {
+        URL specifications = getClass().getClassLoader().getResource("specifications/");
+        TreeSet<String> versions = new TreeSet<String>();
+
+        if (specifications == null) {
+            return "unknown";
+        }
+
+        try {
+            URLConnection connection = specifications.openConnection();
+
+            if (connection instanceof JarURLConnection) {
+                JarFile jar = ((JarURLConnection) connection).getJarFile();
+                Enumeration<JarEntry> entries = jar.entries();
+
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+
+                    if (name.startsWith("specifications/") && name.endsWith(".gemspec")) {
+                        versions.add(name.substring("specifications/".length()));
+                    }
+                }
+            } else {
+                String[] names = new File(specifications.toURI()).list();
+
+                if (names != null) {
+                    Collections.addAll(versions, names);
+                }
+            }
+        } catch (Exception e) {
+            return "unknown";
+        }
+
+        return versions.toString();
+    }
+
+    private Compiler createCompiler(File project) {
+        Compiler compiler = new Compiler();
+        compiler.setEngine(engine);
+        compiler.setConfigLocation(project);
+        compiler.setRuntimePoolSize(runtimePoolSize);
+        compiler.setParallelism(parallelism);
+
+        if (unpackGems) {
+            compiler.setGemsDirectory(GemBundle.DEFAULT_DIRECTORY);
+        }
+
+        compiler.setCache(sassCacheLocation, sassCacheMaxBytes);
+
+        compiler.setLocalContextScope(localContextScope);
+        compiler.setFingerprint(fingerprint);
+        compiler.setBundles(Bundler.parse(bundles));
+        compiler.setStaged(atomicPublish);
+        compiler.setRetainedGenerations(retainedGenerations);
+        compiler.setSourceMaps(sourceMaps);
+        compiler.setSourceMapsInline(sourceMapsInline);
+        compiler.setSourceMapsEmbedSources(sourceMapsEmbedSources);
+
+        if (precompress) {
+            compiler.setCompressors(Collections.<Compressor>singletonList(new GzipCompressor()));
+        }
+
+        return compiler;
     }
 }
@@ -0,0 +1,146 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.jruby.embed.LocalContextScope;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class SassJavaMojoTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SassJavaMojo mojo;
+    private RecordingLog log;
+
+    @Before
+    public void setup() throws Exception {
+        mojo = new SassJavaMojo();
+        log = new RecordingLog();
+        mojo.setLog(log);
+
+        set("basedir", temporaryFolder.getRoot());
+        set("engine", Compiler.DEFAULT_ENGINE);
+        set("sassCacheMaxBytes", SassCache.DEFAULT_MAX_BYTES);
+        set("runtimePoolSize", 1);
+        set("localContextScope", LocalContextScope.SINGLETHREAD);
+        set("stateDirectory", new File(temporaryFolder.getRoot(), "target/sass-java"));
+        set("daemonFile", new File(temporaryFolder.getRoot(), "daemon.properties"));
+        set("buildContext", new DefaultBuildContext());
+    }
+
+    @Test
+    public void compilesEveryEntryPointOfSeveralProjectsAtTheSameTime() throws Exception {
+        File site = project("site");
+        File admin = project("admin");
+        write(site, "sass/print.scss", "@import 'colors'; p { color: $brand; }");
+        write(admin, "sass/users.scss", "@import 'colors'; td { color: $brand; }");
+        set("configs", asList(site, admin));
+        set("threads", 2);
+
+        mojo.execute();
+
+        assertEquals("body{color:#369}", read(site, "css/app.css"));
+        assertEquals("p{color:#369}", read(site, "css/print.css"));
+        assertEquals("body{color:#369}", read(admin, "css/app.css"));
+        assertEquals("td{color:#369}", read(admin, "css/users.css"));
+        assertEquals(2, log.count("Compiling sass for "));
+    }
+
+    @Test
+    public void skipsCompilingWhenNothingChanged() throws Exception {
+        File site = project("site");
+        set("config", site);
+
+        mojo.execute();
+        File css = new File(site.getParentFile(), "css/app.css");
+        long compiled = css.lastModified();
+        mojo.execute();
+
+        assertEquals(1, log.count("Compiling sass for "));
+        assertEquals(1, log.count("is up to date"));
+        assertEquals(compiled, css.lastModified());
+    }
+
+    @Test
+    public void compilesAgainWhenAnImportedPartialChanged() throws Exception {
+        File site = project("site");
+        write(site, "sass/print.scss", "p { color: #000; }");
+        set("config", site);
+
+        mojo.execute();
+        write(site, "sass/_colors.scss", "$brand: #993366 !default; // darker");
+        File partial = new File(site.getParentFile(), "sass/_colors.scss");
+        assertTrue(partial.setLastModified(partial.lastModified() + 2000));
+        mojo.execute();
+
+        assertEquals(2, log.count("Compiling sass for "));
+        assertEquals("body{color:#936}", read(site, "css/app.css"));
+        assertEquals("p{color:#000}", read(site, "css/print.css"));
+    }
+
+    /**
+     * A compass project with a partial and a stylesheet that imports it.
+     *
+     * @return its config.rb
+     */
+    private File project(String name) throws Exception {
+        File config = new File(temporaryFolder.getRoot(), name + "/config.rb");
+        FileUtils.writeStringToFile(config, "" +
+                "css_dir = 'css'\n" +
+                "sass_dir = 'sass'\n" +
+                "line_comments = false\n" +
+                "output_style = :compressed\n");
+        write(config, "sass/_colors.scss", "$brand: #336699 !default;");
+        write(config, "sass/app.scss", "@import 'colors'; body { color: $brand; }");
+        return config;
+    }
+
+    private void write(File config, String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(config.getParentFile(), path), content);
+    }
+
+    private String read(File config, String path) throws Exception {
+        return FileUtils.readFileToString(new File(config.getParentFile(), path)).trim();
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = SassJavaMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private static class RecordingLog extends SystemStreamLog {
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public synchronized void info(CharSequence content) {
+            messages.add(content.toString());
+            super.info(content);
+        }
+
+        synchronized int count(String text) {
+            int count = 0;
+
+            for (String message : messages) {
+                if (message.contains(text)) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+    }
+}
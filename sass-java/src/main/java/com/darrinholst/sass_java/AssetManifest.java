@@ -0,0 +1,135 @@
+package com.darrinholst.sass_java;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps stylesheet names relative to the css directory, like {@code app.css}, to their
+ * fingerprinted names, like {@code app-3f9a1c2b.css}. Stored as a flat json object in
+ * {@value #FILE_NAME} in the css directory.
+ * <p>
+ * From a JSP: {@code <link rel="stylesheet" href="${pageContext.request.contextPath}<%= AssetManifest.url(application, "/stylesheets/app.css") %>">}
+ */
+public class AssetManifest {
+    public static final String FILE_NAME = "manifest.json";
+    public static final String ATTRIBUTE = AssetManifest.class.getName();
+    private static final Pattern ENTRY = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final Map<String, String> entries;
+    private String urlPrefix = "/";
+
+    public AssetManifest(Map<String, String> entries) {
+        this.entries = new TreeMap<String, String>(entries);
+    }
+
+    /**
+     * The fingerprinted url for a webapp path of a stylesheet, or the path itself when the
+     * filter hasn't published a manifest or doesn't know about the stylesheet.
+     */
+    public static String url(ServletContext servletContext, String path) {
+        Object manifest = servletContext.getAttribute(ATTRIBUTE);
+        return manifest instanceof AssetManifest ? ((AssetManifest) manifest).url(path) : path;
+    }
+
+    public String url(String path) {
+        if (path.startsWith(urlPrefix)) {
+            String fingerprinted = entries.get(path.substring(urlPrefix.length()));
+
+            if (fingerprinted != null) {
+                return urlPrefix + fingerprinted;
+            }
+        }
+
+        return path;
+    }
+
+    public String lookup(String name) {
+        return entries.get(name);
+    }
+
+    public Map<String, String> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public boolean isFingerprinted(String name) {
+        return entries.containsValue(name);
+    }
+
+    public void setUrlPrefix(String urlPrefix) {
+        this.urlPrefix = urlPrefix.endsWith("/") ? urlPrefix : urlPrefix + "/";
+    }
+
+    public static AssetManifest read(File file) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+
+        if (file.isFile()) {
+            Matcher matcher = ENTRY.matcher(readFully(file));
+
+            while (matcher.find()) {
+                entries.put(unescape(matcher.group(1)), unescape(matcher.group(2)));
+            }
+        }
+
+        return new AssetManifest(entries);
+    }
+
+    public void write(File file) throws IOException {
+        StringBuilder json = new StringBuilder("{");
+
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            json.append(json.length() > 1 ? ",\n  " : "\n  ");
+            json.append(escape(entry.getKey())).append(": ").append(escape(entry.getValue()));
+        }
+
+        json.append(entries.isEmpty() ? "}\n" : "\n}\n");
+
+        File temporary = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+
+        AtomicFiles.move(temporary, file);
+    }
+
+    private static String escape(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String unescape(String value) {
+        return value.replaceAll("\\\\(.)", "$1");
+    }
+
+    private static String readFully(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+        try {
+            StringBuilder contents = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+
+            while ((read = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, read);
+            }
+
+            return contents.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files so that readers see either the old or the new contents, never a
+ * partially written file, wherever the file system supports atomic moves.
+ */
+public final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    public static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static void copy(File source, File target) throws IOException {
+        File temporary = new File(target.getPath() + ".tmp");
+        Files.copy(source.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        move(temporary, target);
+    }
+}
@@ -0,0 +1,367 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Concatenates compiled stylesheets into bundles, so a page needs one request for its
+ * css instead of one per stylesheet, and minifies them with a {@link CssMinifier}.
+ * <p>
+ * Each member is minified once and kept along with its fingerprint in a directory next
+ * to the css directory, see {@link #stateDirectoryOf}, so the next run only minifies
+ * the members that were compiled again, and only writes the bundles that have one of
+ * them. Bundles are written to
+ * the css directory before it's fingerprinted, so they get fingerprints too.
+ * <p>
+ * Members are kept without the byte order mark sass starts compressed non-ASCII
+ * output with, or the charset rule it starts other styles with, as either is only
+ * allowed at the very start of a stylesheet. A bundle starts with a single charset
+ * rule instead when any of its members had one of them.
+ */
+public class Bundler {
+    public static final String STATE_DIRECTORY = "bundles";
+
+    // where earlier versions kept the minified members, in the css directory itself
+    private static final String LEGACY_STATE_DIRECTORY = ".sass-java-bundles";
+
+    private static final String STATE_FILE = "bundles.properties";
+    private static final String MEMBER = "member.";
+    // members minified by earlier versions kept their charset rule, the new key has
+    // them minified again
+    private static final String CHARSET = "utf8.";
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+    private static final String BUNDLE = "bundle.";
+    private static final String CHARSET_RULE = "@charset \"UTF-8\";";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, List<String>> bundles;
+    private final CssMinifier minifier = new CssMinifier();
+
+    /**
+     * @param bundles the stylesheets of each bundle, in order, all relative to the css directory
+     */
+    public Bundler(Map<String, List<String>> bundles) {
+        this.bundles = bundles;
+    }
+
+    /**
+     * Reads bundles declared as {@code site.css=base.css,layout.css;admin.css=base.css,admin/users.css},
+     * whitespace around the names is ignored.
+     */
+    public static Map<String, List<String>> parse(String declaration) {
+        Map<String, List<String>> bundles = new LinkedHashMap<String, List<String>>();
+
+        if (declaration == null) {
+            return bundles;
+        }
+
+        for (String bundle : declaration.split(";")) {
+            if (bundle.trim().length() == 0) {
+                continue;
+            }
+
+            String[] parts = bundle.split("=", 2);
+            String name = parts[0].trim();
+            List<String> members = new ArrayList<String>();
+
+            if (parts.length < 2 || name.length() == 0) {
+                throw new IllegalArgumentException("bundles are declared as name=member,member but got " + bundle.trim());
+            }
+
+            for (String member : parts[1].split(",")) {
+                if (member.trim().length() > 0) {
+                    members.add(member.trim());
+                }
+            }
+
+            if (members.contains(name)) {
+                throw new IllegalArgumentException("bundle " + name + " can't include itself");
+            }
+
+            bundles.put(name, members);
+        }
+
+        return bundles;
+    }
+
+    /**
+     * Where the minified members of bundles written to the given css directory are kept.
+     */
+    public static File stateDirectoryOf(File cssDirectory) {
+        return new File(OutputPublisher.stateDirectoryOf(cssDirectory), STATE_DIRECTORY);
+    }
+
+    public void bundle(File cssDirectory) throws IOException {
+        bundle(cssDirectory, stateDirectoryOf(cssDirectory));
+    }
+
+    /**
+     * @param stateDirectory where the minified members are kept, which for a staging
+     *                       directory is the one of the css directory it's published to
+     */
+    public void bundle(File cssDirectory, File stateDirectory) throws IOException {
+        File stateFile = new File(stateDirectory, STATE_FILE);
+        Properties previous = read(stateFile);
+        Properties state = new Properties();
+        stateDirectory.mkdirs();
+
+        for (Map.Entry<String, List<String>> bundle : bundles.entrySet()) {
+            StringBuilder signature = new StringBuilder();
+
+            for (String member : bundle.getValue()) {
+                signature.append(member).append('=').append(minifyMember(cssDirectory, stateDirectory, bundle.getKey(), member, previous, state)).append(';');
+            }
+
+            File file = new File(cssDirectory, bundle.getKey());
+
+            if (!file.isFile() || !signature.toString().equals(previous.getProperty(BUNDLE + bundle.getKey()))) {
+                write(file, bundle.getValue(), stateDirectory, state);
+            }
+
+            state.setProperty(BUNDLE + bundle.getKey(), signature.toString());
+        }
+
+        removeLeftovers(cssDirectory, stateDirectory, previous, state);
+        removeLegacyState(cssDirectory);
+        write(stateFile, state);
+    }
+
+    /**
+     * Minifies the member unless it's the same as last time, and returns its fingerprint.
+     */
+    private String minifyMember(File cssDirectory, File stateDirectory, String bundle, String member, Properties previous, Properties state) throws IOException {
+        if (state.getProperty(MEMBER + member) != null) {
+            return state.getProperty(MEMBER + member);
+        }
+
+        File file = new File(cssDirectory, member);
+
+        if (!file.isFile()) {
+            throw new IOException("bundle " + bundle + " includes " + member + ", which isn't a stylesheet in " + cssDirectory);
+        }
+
+        String fingerprint = Fingerprint.of(file, false).toString();
+        File minified = minifiedFile(stateDirectory, member);
+        boolean charset;
+
+        if (fingerprint.equals(previous.getProperty(MEMBER + member)) && previous.getProperty(CHARSET + member) != null && minified.isFile()) {
+            charset = Boolean.parseBoolean(previous.getProperty(CHARSET + member));
+        } else {
+            charset = minify(file, minified);
+        }
+
+        state.setProperty(MEMBER + member, fingerprint);
+        state.setProperty(CHARSET + member, String.valueOf(charset));
+        return fingerprint;
+    }
+
+    /**
+     * @return whether the stylesheet started with a byte order mark or a charset rule,
+     * which are left out of the minified copy
+     */
+    private boolean minify(File file, File minified) throws IOException {
+        PushbackReader input = new PushbackReader(new InputStreamReader(new FileInputStream(file), UTF_8), 1);
+
+        try {
+            int first = input.read();
+            boolean byteOrderMark = first == BYTE_ORDER_MARK;
+
+            if (!byteOrderMark && first != -1) {
+                input.unread(first);
+            }
+
+            CharsetRuleFilter output = new CharsetRuleFilter(new OutputStreamWriter(new FileOutputStream(minified), UTF_8));
+
+            try {
+                minifier.minify(input, output);
+            } finally {
+                output.close();
+            }
+
+            return byteOrderMark || output.removed;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Streams the minified members into the bundle, with a single charset rule at the
+     * start when any of them had one.
+     */
+    private void write(File file, List<String> members, File stateDirectory, Properties state) throws IOException {
+        boolean charset = false;
+
+        for (String member : members) {
+            charset |= Boolean.parseBoolean(state.getProperty(CHARSET + member));
+        }
+
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            if (charset) {
+                output.write(CHARSET_RULE.getBytes(UTF_8));
+            }
+
+            for (String member : members) {
+                InputStream input = new FileInputStream(minifiedFile(stateDirectory, member));
+
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+
+                    while ((read = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    input.close();
+                }
+
+                output.write('\n');
+            }
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, file);
+    }
+
+    /**
+     * Bundles that are no longer declared, and members no bundle includes anymore.
+     */
+    private void removeLeftovers(File cssDirectory, File stateDirectory, Properties previous, Properties state) {
+        Set<String> minified = new HashSet<String>();
+
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(MEMBER)) {
+                minified.add(minifiedFile(stateDirectory, key.substring(MEMBER.length())).getName());
+            }
+        }
+
+        for (String key : previous.stringPropertyNames()) {
+            if (key.startsWith(BUNDLE) && !bundles.containsKey(key.substring(BUNDLE.length()))) {
+                new File(cssDirectory, key.substring(BUNDLE.length())).delete();
+            }
+        }
+
+        File[] files = stateDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(STATE_FILE) && !minified.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void removeLegacyState(File cssDirectory) {
+        File legacy = new File(cssDirectory, LEGACY_STATE_DIRECTORY);
+        File[] files = legacy.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        legacy.delete();
+    }
+
+    private File minifiedFile(File stateDirectory, String member) {
+        return new File(stateDirectory, Fingerprint.sha1(member.getBytes(UTF_8)) + ".min");
+    }
+
+    private Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+
+        if (file.isFile()) {
+            InputStream input = new FileInputStream(file);
+
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+        }
+
+        return properties;
+    }
+
+    private void write(File file, Properties properties) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            properties.store(output, "written by sass-java, the bundles of the last compile");
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, file);
+    }
+
+    /**
+     * Leaves out a charset rule the minified css starts with.
+     */
+    private static class CharsetRuleFilter extends Writer {
+        private final Writer output;
+        private StringBuilder head = new StringBuilder();
+        private boolean removed;
+
+        private CharsetRuleFilter(Writer output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            int i = offset;
+
+            while (head != null && i < offset + length) {
+                head.append(buffer[i++]);
+
+                if (!CHARSET_RULE.startsWith(head.toString())) {
+                    output.write(head.toString());
+                    head = null;
+                } else if (head.length() == CHARSET_RULE.length()) {
+                    removed = true;
+                    head = null;
+                }
+            }
+
+            output.write(buffer, i, offset + length - i);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (head != null) {
+                output.write(head.toString());
+                head = null;
+            }
+
+            output.close();
+        }
+    }
+}
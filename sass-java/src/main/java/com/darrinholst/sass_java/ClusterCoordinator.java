@@ -0,0 +1,180 @@
+package com.darrinholst.sass_java;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lets several JVMs that share a webapp directory, e.g. over NFS, compile the same
+ * sass without duplicating the work. Whoever holds an exclusive lock on a file in
+ * the shared directory compiles, the others block on the lock and then find in the
+ * generation marker that the sources they would compile have already been compiled.
+ * <p>
+ * Failed compiles are recorded too, so the other nodes report the same error instead
+ * of trying again until the sources change. The compiler is expected to be staged, see
+ * {@link Compiler#setStaged}, so nobody reads a stylesheet while it's being written.
+ */
+public class ClusterCoordinator {
+    public static final String LOCK_FILE = ".sass-java.lock";
+    public static final String GENERATION_FILE = ".sass-java.generation";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterCoordinator.class);
+    private static final String GENERATION = "generation";
+    private static final String SOURCES = "sources";
+    private static final String ERROR = "error";
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File directory;
+    private final File configLocation;
+
+    public ClusterCoordinator(File directory, File configLocation) {
+        this.directory = directory;
+        this.configLocation = configLocation;
+    }
+
+    /**
+     * @return whether this node compiled, false when another one already had
+     */
+    public boolean compile(Compiler compiler) {
+        directory.mkdirs();
+
+        try {
+            File file = new File(directory, LOCK_FILE).getCanonicalFile();
+
+            synchronized (jvmLockFor(file)) {
+                RandomAccessFile lockFile = new RandomAccessFile(file, "rw");
+
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+
+                    try {
+                        return compileLocked(compiler);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to coordinate compiling with other nodes through " + directory, e);
+        }
+    }
+
+    /**
+     * File locks are held by the whole JVM, so coordinators in the same JVM, e.g. of
+     * two webapps, take turns before asking for one.
+     */
+    private static Object jvmLockFor(File file) {
+        Object lock = new Object();
+        Object existing = JVM_LOCKS.putIfAbsent(file.getPath(), lock);
+        return existing != null ? existing : lock;
+    }
+
+    public long getGeneration() {
+        return Long.parseLong(readMarker().getProperty(GENERATION, "0"));
+    }
+
+    private boolean compileLocked(Compiler compiler) throws IOException {
+        Properties marker = readMarker();
+        String sources = sourcesDigest(compiler);
+
+        if (sources.equals(marker.getProperty(SOURCES))) {
+            if (marker.getProperty(ERROR) != null) {
+                throw new RuntimeException(marker.getProperty(ERROR));
+            }
+
+            if (new OutputPublisher(compiler.getCssDirectory()).hasPublished()) {
+                LOG.debug("sass generation " + marker.getProperty(GENERATION) + " was already compiled by another node");
+                return false;
+            }
+        }
+
+        Properties next = new Properties();
+        next.setProperty(GENERATION, String.valueOf(Long.parseLong(marker.getProperty(GENERATION, "0")) + 1));
+        next.setProperty(SOURCES, sources);
+
+        // only exceptions are recorded, errors such as running out of memory aren't the
+        // sources' fault, so the marker is left alone and the next node compiles again
+        try {
+            compiler.compile();
+        } catch (RuntimeException e) {
+            next.setProperty(ERROR, String.valueOf(e.getMessage()));
+
+            try {
+                writeMarker(next);
+            } catch (IOException markerError) {
+                LOG.warn("unable to record the failed compile in " + directory, markerError);
+            }
+
+            throw e;
+        }
+
+        writeMarker(next);
+        return true;
+    }
+
+    /**
+     * Modification times and sizes of config.rb and every sass source, including what's
+     * imported from outside the sass directory, which all the nodes see the same way on
+     * the shared file system.
+     */
+    private String sourcesDigest(Compiler compiler) throws IOException {
+        StringBuilder sources = new StringBuilder();
+        sources.append(configLocation.getName()).append('=').append(Fingerprint.of(configLocation, false)).append('\n');
+
+        DependencyGraph graph = DependencyGraph.scan(compiler.getSassDirectory(), compiler.getImportPaths(), null, false);
+
+        for (Map.Entry<File, Fingerprint> source : graph.getFingerprints().entrySet()) {
+            sources.append(graph.relativePathOf(source.getKey())).append('=').append(source.getValue()).append('\n');
+        }
+
+        return Fingerprint.sha1(sources.toString().getBytes("UTF-8"));
+    }
+
+    private Properties readMarker() {
+        Properties marker = new Properties();
+        File file = new File(directory, GENERATION_FILE);
+
+        if (file.isFile()) {
+            try {
+                InputStream input = new FileInputStream(file);
+
+                try {
+                    marker.load(input);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("unable to read " + file + ", compiling again", e);
+            }
+        }
+
+        return marker;
+    }
+
+    private void writeMarker(Properties marker) throws IOException {
+        File temporary = new File(directory, GENERATION_FILE + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            marker.store(output, "sass-java cluster generation");
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, new File(directory, GENERATION_FILE));
+    }
+}
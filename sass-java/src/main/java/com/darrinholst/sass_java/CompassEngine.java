@@ -0,0 +1,502 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles with compass in JRuby, keeping a {@link RuntimePool} of runtimes that
+ * already have it loaded. This is the default engine.
+ * <p>
+ * With more than one runtime in the pool, a compile splits the stylesheets into
+ * batches with an {@link EntryPointPartitioner} and compiles the batches at the same
+ * time, one per runtime and by default no more than there are processors. The singleton scope
+ * shares one ruby runtime between all of them, so it always compiles in one batch.
+ */
+public class CompassEngine implements SassEngine {
+    public static final String NAME = "compass";
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompassEngine.class);
+
+    private SassEngineConfig config;
+    private RuntimePool runtimePool;
+    private ExecutorService compileThreads;
+    private volatile File sassDirectory;
+    private volatile File cssDirectory;
+    private volatile List<File> importPaths;
+
+    public String getName() {
+        return NAME;
+    }
+
+    public synchronized void initialize(SassEngineConfig config) {
+        this.config = config;
+
+        if (runtimePool == null) {
+            RuntimePool pool = new RuntimePool(config.getRuntimePoolSize(), config.getLocalContextScope(), buildInitializationScript(), gemLoadPaths());
+            pool.warmUp();
+            runtimePool = pool;
+        }
+    }
+
+    public File getSassDirectory() {
+        if (sassDirectory == null) {
+            sassDirectory = new File(String.valueOf(run(buildPathScript("sass_path"))));
+        }
+
+        return sassDirectory;
+    }
+
+    public File getCssDirectory() {
+        if (cssDirectory == null) {
+            cssDirectory = new File(String.valueOf(run(buildPathScript("css_path"))));
+        }
+
+        return cssDirectory;
+    }
+
+    public List<File> getImportPaths() {
+        if (importPaths == null) {
+            List<File> paths = new ArrayList<File>();
+
+            if (config.getConfigLocation() != null) {
+                for (Object path : (List<?>) run(buildImportPathsScript())) {
+                    paths.add(new File(String.valueOf(path)));
+                }
+            }
+
+            importPaths = Collections.unmodifiableList(paths);
+        }
+
+        return importPaths;
+    }
+
+    public void compileAll(File outputDirectory) {
+        List<List<String>> batches = Collections.emptyList();
+
+        if (parallelism() > 1) {
+            DependencyGraph graph = scan();
+            List<String> entryPoints = new ArrayList<String>();
+
+            for (File entryPoint : graph.getEntryPoints()) {
+                entryPoints.add(graph.relativePathOf(entryPoint));
+            }
+
+            batches = new EntryPointPartitioner(graph).partition(entryPoints, parallelism());
+        }
+
+        if (batches.size() < 2) {
+            run(buildCompileScript(outputDirectory));
+        } else {
+            run(buildCleanScript(outputDirectory));
+            compileInParallel(batches, outputDirectory);
+        }
+    }
+
+    public void compile(List<String> stale, List<String> removed, File outputDirectory) {
+        List<List<String>> batches = Collections.emptyList();
+
+        if (parallelism() > 1 && stale.size() > 1) {
+            batches = new EntryPointPartitioner(scan()).partition(stale, parallelism());
+        }
+
+        if (batches.size() < 2) {
+            run(buildIncrementalCompileScript(stale, removed, outputDirectory));
+        } else {
+            if (!removed.isEmpty()) {
+                run(buildIncrementalCompileScript(Collections.<String>emptyList(), removed, outputDirectory));
+            }
+
+            compileInParallel(batches, outputDirectory);
+        }
+    }
+
+    public CompileResult compile(String source, SassOptions options) {
+        List<?> result = (List<?>) run(buildStylesheetScript(source, options));
+        Object sourceMap = result.get(1);
+        return new CompileResult(String.valueOf(result.get(0)), sourceMap == null ? null : String.valueOf(sourceMap));
+    }
+
+    public synchronized void destroy() {
+        if (compileThreads != null) {
+            compileThreads.shutdownNow();
+            compileThreads = null;
+        }
+
+        if (runtimePool != null) {
+            runtimePool.terminate();
+            runtimePool = null;
+        }
+    }
+
+    private List<String> gemLoadPaths() {
+        if (config.getGemsDirectory() == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            GemBundle bundle = GemBundle.find(CompassEngine.class.getClassLoader());
+
+            if (bundle == null) {
+                LOG.warn("the gems on the class path aren't indexed, loading them from the class path");
+                return Collections.emptyList();
+            }
+
+            return bundle.unpack(config.getGemsDirectory());
+        } catch (IOException e) {
+            throw new RuntimeException("unable to unpack the gems into " + config.getGemsDirectory(), e);
+        }
+    }
+
+    /**
+     * Waits for every batch, even after one failed, so nothing is still writing to the
+     * output when this returns. The failure of the first batch is thrown with the ones
+     * of later batches suppressed in it.
+     */
+    private void compileInParallel(List<List<String>> batches, File outputDirectory) {
+        List<Future<Object>> compiles = new ArrayList<Future<Object>>();
+
+        for (List<String> batch : batches) {
+            final String script = buildIncrementalCompileScript(batch, Collections.<String>emptyList(), outputDirectory);
+
+            compiles.add(getCompileThreads().submit(new Callable<Object>() {
+                public Object call() {
+                    return run(script);
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+
+        for (Future<Object> compile : compiles) {
+            try {
+                compile.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                for (Future<Object> other : compiles) {
+                    other.cancel(true);
+                }
+
+                throw new IllegalStateException("interrupted while compiling sass", e);
+            } catch (ExecutionException e) {
+                RuntimeException error = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause()
+                        : new RuntimeException(e.getCause());
+
+                if (failure == null) {
+                    failure = error;
+                } else {
+                    failure.addSuppressed(error);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private int parallelism() {
+        RuntimePool pool = getRuntimePool();
+
+        if (pool.getScope() == LocalContextScope.SINGLETON) {
+            return 1;
+        }
+
+        return Math.min(pool.getSize(), config.getParallelism() > 0 ? config.getParallelism() : Runtime.getRuntime().availableProcessors());
+    }
+
+    private DependencyGraph scan() {
+        try {
+            return DependencyGraph.scan(getSassDirectory(), getImportPaths(), null, false);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read the sass sources in " + getSassDirectory(), e);
+        }
+    }
+
+    private synchronized ExecutorService getCompileThreads() {
+        if (compileThreads == null) {
+            final AtomicInteger threads = new AtomicInteger();
+
+            compileThreads = Executors.newFixedThreadPool(getRuntimePool().getSize(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "sass-java-compile-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return compileThreads;
+    }
+
+    private Object run(String script) {
+        RuntimePool pool = getRuntimePool();
+        RuntimePool.PooledRuntime runtime = pool.borrow();
+
+        try {
+            return runtime.run(script);
+        } finally {
+            pool.release(runtime);
+        }
+    }
+
+    private synchronized RuntimePool getRuntimePool() {
+        if (runtimePool == null) {
+            throw new IllegalStateException("the compass engine isn't initialized");
+        }
+
+        return runtimePool;
+    }
+
+    private String buildCompileScript(File outputDirectory) {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        beginCompileScript(script, outputDirectory);
+        script.println("  compiler = Compass.sass_compiler(:sourcemap => :auto)   ");
+        script.println("  compiler.logger = Compass::NullLogger.new               ");
+        script.println("  compiler.clean!                                         ");
+        script.println("  compiler = Compass.sass_compiler(" + sourceMapOptions() + ")");
+        script.println("  compiler.logger = Compass::NullLogger.new               ");
+        script.println("  compiler.compile!                                       ");
+        endCompileScript(script, outputDirectory);
+        script.flush();
+
+        return raw.toString();
+    }
+
+    private String buildCleanScript(File outputDirectory) {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        beginCompileScript(script, outputDirectory);
+        script.println("  compiler = Compass.sass_compiler(:sourcemap => :auto)   ");
+        script.println("  compiler.logger = Compass::NullLogger.new               ");
+        script.println("  compiler.clean!                                         ");
+        endCompileScript(script, outputDirectory);
+        script.flush();
+
+        return raw.toString();
+    }
+
+    /**
+     * The stale stylesheets are compiled even when compass thinks they're up to date, its
+     * check compares modification times that may be whole seconds, which misses a partial
+     * changed in the same second the css was written.
+     */
+    private String buildIncrementalCompileScript(List<String> stale, List<String> removed, File outputDirectory) {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        beginCompileScript(script, outputDirectory);
+        script.println("  sass_path = Compass.configuration.sass_path                               ");
+        script.println("  removed = " + toRubyArray(removed) + ".map { |f| File.join(sass_path, f) } ");
+        script.println("  stale = " + toRubyArray(stale) + ".map { |f| File.join(sass_path, f) }     ");
+        script.println("  unless removed.empty?                                                     ");
+        script.println("    compiler = Compass.sass_compiler(:only_sass_files => removed, :sourcemap => :auto) ");
+        script.println("    compiler.logger = Compass::NullLogger.new                               ");
+        script.println("    compiler.clean!                                                         ");
+        script.println("  end                                                                       ");
+        script.println("  unless stale.empty?                                                       ");
+        script.println("    compiler = Compass.sass_compiler(:only_sass_files => stale, :force => true" + (sourceMapOptions().isEmpty() ? "" : ", " + sourceMapOptions()) + ")");
+        script.println("    compiler.logger = Compass::NullLogger.new                               ");
+        script.println("    compiler.compile!                                                       ");
+        script.println("  end                                                                       ");
+        endCompileScript(script, outputDirectory);
+        script.flush();
+
+        return raw.toString();
+    }
+
+    /**
+     * Points compass at another output directory for the length of the compile, leaving
+     * the css_path of config.rb as it was afterwards.
+     */
+    private void beginCompileScript(PrintWriter script, File outputDirectory) {
+        script.println("Dir.chdir(File.dirname('" + getConfigLocation() + "')) do ");
+
+        if (outputDirectory != null) {
+            script.println("  configuration = Compass.configuration                  ");
+            script.println("  css_path_was_set = configuration.css_path_set?          ");
+            script.println("  css_path_was = configuration.raw_css_path               ");
+            script.println("  configuration.css_path = " + quote(replaceSlashes(outputDirectory.getAbsolutePath())));
+            script.println("  begin                                                   ");
+        }
+    }
+
+    private void endCompileScript(PrintWriter script, File outputDirectory) {
+        if (outputDirectory != null) {
+            script.println("  ensure                                                  ");
+            script.println("    if css_path_was_set                                   ");
+            script.println("      configuration.css_path = css_path_was               ");
+            script.println("    else                                                  ");
+            script.println("      configuration.unset_css_path!                       ");
+            script.println("    end                                                   ");
+            script.println("  end                                                     ");
+        }
+
+        script.println("end                                                       ");
+    }
+
+    /**
+     * The sourcemap option for compiling, empty when config.rb decides. Cleaning always
+     * runs with maps on, so maps from earlier compiles go away once they're turned off.
+     */
+    private String sourceMapOptions() {
+        if (Boolean.FALSE.equals(config.getSourceMaps())) {
+            return ":sourcemap => :none";
+        } else if (Boolean.TRUE.equals(config.getSourceMaps())) {
+            return ":sourcemap => " + (config.isSourceMapsEmbedSources() ? ":inline" : ":auto");
+        } else if (config.isSourceMapsEmbedSources()) {
+            return ":sourcemap => (Compass.configuration.sourcemap ? :inline : :none)";
+        }
+
+        return "";
+    }
+
+    private String buildPathScript(String property) {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        script.println("Dir.chdir(File.dirname('" + getConfigLocation() + "')) do ");
+        script.println("  File.expand_path(Compass.configuration." + property + ") ");
+        script.println("end                                                       ");
+        script.flush();
+
+        return raw.toString();
+    }
+
+    /**
+     * The additional import paths that are directories, importer objects can't be
+     * watched for changes anyway.
+     */
+    private String buildImportPathsScript() {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        script.println("Dir.chdir(File.dirname('" + getConfigLocation() + "')) do ");
+        script.println("  Compass.configuration.additional_import_paths.          ");
+        script.println("    select { |path| path.is_a?(String) || path.is_a?(Pathname) }.");
+        script.println("    map { |path| File.expand_path(path.to_s) }            ");
+        script.println("end                                                       ");
+        script.flush();
+
+        return raw.toString();
+    }
+
+    private String buildStylesheetScript(String source, SassOptions options) {
+        String syntax = options.getSyntax().name().toLowerCase();
+        String filename = replaceSlashes(filenameOf(options.getFilename() != null ? options.getFilename() : "stylesheet." + syntax));
+        String css = filename.replaceAll("\\.(scss|sass)$", "") + ".css";
+        StringBuilder loadPaths = new StringBuilder("[");
+
+        for (File loadPath : options.getLoadPaths()) {
+            if (loadPaths.length() > 1) loadPaths.append(", ");
+            loadPaths.append(quote(replaceSlashes(loadPath.getAbsolutePath())));
+        }
+
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        script.println("options = {                                                          ");
+        script.println("  :syntax => :" + syntax + ",                                        ");
+        script.println("  :style => :" + options.getStyle().name().toLowerCase() + ",        ");
+        script.println("  :filename => " + quote(filename) + ",                              ");
+        script.println("  :importer => Sass::Importers::Filesystem.new(File.dirname(" + quote(filename) + ")), ");
+        script.println("  :sourcemap_filename => " + quote(css + ".map") + ",                ");
+        if (config.getCacheLocation() != null) {
+            script.println("  :cache => true,                                                    ");
+            script.println("  :cache_location => " + quote(replaceSlashes(config.getCacheLocation().getAbsolutePath())) + ",");
+        } else {
+            script.println("  :cache => false,                                                   ");
+        }
+        script.println("  :load_paths => " + loadPaths + "] + Compass.configuration.sass_load_paths ");
+        script.println("}                                                                    ");
+        script.println("engine = Sass::Engine.new(" + quote(source) + ", options)            ");
+        if (options.isSourceMap()) {
+            script.println("css, map = engine.render_with_sourcemap(" + quote(new File(css).getName() + ".map") + ") ");
+            script.println("[css, map.to_json(:css_uri => " + quote(new File(css).getName()) + ", :type => :inline)] ");
+        } else {
+            script.println("[engine.render, nil]                                             ");
+        }
+        script.flush();
+
+        return raw.toString();
+    }
+
+    /**
+     * Imports relative to an in-memory stylesheet are looked for next to its filename, so
+     * one that isn't absolute is taken relative to the sass directory rather than the
+     * working directory of the JVM.
+     */
+    private String filenameOf(String filename) {
+        File file = new File(filename);
+
+        if (file.isAbsolute() || config.getConfigLocation() == null) {
+            return filename;
+        }
+
+        return new File(getSassDirectory(), filename).getPath();
+    }
+
+    private String buildInitializationScript() {
+        StringWriter raw = new StringWriter();
+        PrintWriter script = new PrintWriter(raw);
+
+        script.println("require 'compass'                                               ");
+        script.println("require 'compass/sass_compiler'                                 ");
+        if (config.getConfigLocation() != null) {
+            script.println("Compass.add_project_configuration '" + getConfigLocation() + "' ");
+        }
+        if (config.getCacheLocation() != null) {
+            script.println("Compass.configuration.cache = true                              ");
+            script.println("Compass.configuration.cache_path = " + quote(replaceSlashes(config.getCacheLocation().getAbsolutePath())));
+        }
+        if (config.getConfigLocation() != null) {
+            script.println("Compass.configure_sass_plugin!                                  ");
+        }
+        script.flush();
+
+        return raw.toString();
+    }
+
+    private String getConfigLocation() {
+        return replaceSlashes(config.getConfigLocation().getAbsolutePath());
+    }
+
+    private String replaceSlashes(String path) {
+        return path.replaceAll("\\\\", "/");
+    }
+
+    private String toRubyArray(List<String> paths) {
+        StringBuilder array = new StringBuilder("[");
+
+        for (String path : paths) {
+            if (array.length() > 1) array.append(", ");
+            array.append(quote(path));
+        }
+
+        return array.append("]").toString();
+    }
+
+    private String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,280 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.ScriptingContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Thin client of a {@link CompileServer}. Starts the server when none is running and
+ * returns null from {@link #compile(Properties)} when it can't be reached at all, so
+ * callers can fall back to compiling in process.
+ */
+public class CompileClient {
+    private static final Logger LOG = LoggerFactory.getLogger(CompileClient.class);
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final long START_TIMEOUT = 20000;
+    private static final Object START_LOCK = new Object();
+
+    private final File daemonFile;
+    private long idleTimeout = CompileServer.DEFAULT_IDLE_TIMEOUT;
+    private boolean startServer = true;
+
+    public CompileClient(File daemonFile) {
+        this.daemonFile = daemonFile;
+    }
+
+    public static File defaultDaemonFile() {
+        return new File(System.getProperty("user.home"), ".sass-java/daemon.properties");
+    }
+
+    /**
+     * The request carries the {@code CompileServer} option keys, the response the
+     * resolved sass and css directories. Throws when the server reports a failed compile.
+     */
+    public Properties compile(Properties request) {
+        Properties response = send(request);
+
+        if (response == null && startServer) {
+            synchronized (START_LOCK) {
+                response = send(request);
+
+                if (response == null && startServer()) {
+                    response = send(request);
+                }
+            }
+        }
+
+        if (response != null && !CompileServer.OK.equals(response.getProperty(CompileServer.STATUS))) {
+            throw new RuntimeException(response.getProperty(CompileServer.MESSAGE));
+        }
+
+        return response;
+    }
+
+    private Properties send(Properties request) {
+        Properties daemon = readDaemonFile();
+
+        if (daemon == null) {
+            return null;
+        }
+
+        try {
+            Socket socket = new Socket();
+
+            try {
+                socket.connect(new InetSocketAddress("127.0.0.1", Integer.parseInt(daemon.getProperty(CompileServer.PORT))), CONNECT_TIMEOUT);
+
+                Properties message = new Properties();
+                message.putAll(request);
+                message.setProperty(CompileServer.TOKEN, daemon.getProperty(CompileServer.TOKEN));
+
+                OutputStream output = socket.getOutputStream();
+                message.store(output, null);
+                output.flush();
+                socket.shutdownOutput();
+
+                Properties response = new Properties();
+                response.load(socket.getInputStream());
+                return response.isEmpty() ? null : response;
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            LOG.debug("sass compile server at " + daemonFile + " is not reachable", e);
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Properties readDaemonFile() {
+        if (!daemonFile.isFile()) {
+            return null;
+        }
+
+        try {
+            InputStream input = new FileInputStream(daemonFile);
+            Properties properties = new Properties();
+
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            return properties;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Launches the server in a new JVM with the same classpath that loaded this class
+     * and waits until it has written its daemon file.
+     */
+    private boolean startServer() {
+        daemonFile.delete();
+        daemonFile.getParentFile().mkdirs();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(classpath());
+        command.add(CompileServer.class.getName());
+        command.add(daemonFile.getPath());
+        command.add(String.valueOf(idleTimeout));
+
+        try {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(daemonFile.getParentFile(), "daemon.log")));
+            builder.start();
+        } catch (IOException e) {
+            LOG.warn("unable to start the sass compile server", e);
+            return false;
+        }
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+
+        while (System.currentTimeMillis() < deadline) {
+            if (readDaemonFile() != null) {
+                return true;
+            }
+
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        LOG.warn("sass compile server did not start within " + START_TIMEOUT + "ms");
+        return false;
+    }
+
+    private String classpath() {
+        Set<String> entries = new LinkedHashSet<String>();
+        ClassLoader loader = getClass().getClassLoader();
+
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                addEntry(entries, url);
+            }
+        }
+
+        for (Class<?> type : new Class<?>[]{CompileServer.class, ScriptingContainer.class, LoggerFactory.class}) {
+            addEntry(entries, type.getProtectionDomain().getCodeSource().getLocation());
+        }
+
+        URL gems = loader.getResource("specifications/");
+        if (gems != null && "jar".equals(gems.getProtocol())) {
+            String path = gems.getPath();
+            addEntry(entries, path.substring(0, path.indexOf("!/")));
+        }
+
+        String system = System.getProperty("java.class.path");
+        if (system != null && system.length() > 0) {
+            entries.add(system);
+        }
+
+        StringBuilder classpath = new StringBuilder();
+        for (String entry : entries) {
+            if (classpath.length() > 0) classpath.append(File.pathSeparator);
+            classpath.append(entry);
+        }
+
+        return classpath.toString();
+    }
+
+    private void addEntry(Set<String> entries, Object location) {
+        try {
+            entries.add(new File(new URL(location.toString()).toURI()).getPath());
+        } catch (IOException e) {
+            LOG.debug("skipping classpath entry " + location, e);
+        } catch (URISyntaxException e) {
+            LOG.debug("skipping classpath entry " + location, e);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("skipping classpath entry " + location, e);
+        }
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void setStartServer(boolean startServer) {
+        this.startServer = startServer;
+    }
+
+    /**
+     * Usage: CompileClient [--fingerprint] [--precompress] [--no-daemon] config.rb...
+     * <p>
+     * Compiles each project through the compile server, starting it when needed, and
+     * in this JVM when the server can't be used.
+     */
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        List<File> configs = new ArrayList<File>();
+        boolean daemon = true;
+
+        for (String arg : args) {
+            if (arg.equals("--fingerprint")) {
+                options.setProperty(CompileServer.FINGERPRINT, "true");
+            } else if (arg.equals("--precompress")) {
+                options.setProperty(CompileServer.PRECOMPRESS, "true");
+            } else if (arg.equals("--no-daemon")) {
+                daemon = false;
+            } else {
+                configs.add(new File(arg).getAbsoluteFile());
+            }
+        }
+
+        if (configs.isEmpty()) {
+            System.err.println("usage: CompileClient [--fingerprint] [--precompress] [--no-daemon] config.rb...");
+            System.exit(2);
+        }
+
+        CompileClient client = new CompileClient(defaultDaemonFile());
+        int failures = 0;
+
+        for (File config : configs) {
+            Properties request = new Properties();
+            request.putAll(options);
+            request.setProperty(CompileServer.CONFIG, config.getPath());
+
+            try {
+                if (!daemon || client.compile(request) == null) {
+                    Compiler compiler = CompileServer.configure(new Compiler(), request);
+
+                    try {
+                        compiler.compile();
+                    } finally {
+                        compiler.destroy();
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println(config + ": " + e.getMessage());
+                failures++;
+            }
+        }
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,17 @@
+package com.darrinholst.sass_java;
+
+/**
+ * Told about every compile and about every request that had to wait for one. Incremental
+ * compiles that found nothing to compile or remove aren't reported. Called on the
+ * compiling or waiting thread, so implementations should be quick and thread safe.
+ */
+public interface CompileListener {
+    /**
+     * @param nanos         how long the compile took
+     * @param filesCompiled stylesheets compiled, everything unless compiling incrementally
+     * @param error         why the compile failed, or null when it succeeded
+     */
+    void compileFinished(long nanos, int filesCompiled, Throwable error);
+
+    void requestWaited(long nanos);
+}
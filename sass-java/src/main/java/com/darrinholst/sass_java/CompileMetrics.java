@@ -0,0 +1,180 @@
+package com.darrinholst.sass_java;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counts, duration percentiles and the last error of compiles and request waits,
+ * for sizing dwell intervals and spotting slow compiles. Registered as an MBean by the
+ * filter when {@code jmx} is on.
+ */
+public class CompileMetrics implements CompileListener, CompileMetricsMXBean {
+    private static final int SAMPLES = 1024;
+
+    private final Samples compiles = new Samples(SAMPLES);
+    private final Samples waits = new Samples(SAMPLES);
+    private final AtomicLong failedCompiles = new AtomicLong();
+    private final AtomicLong filesCompiled = new AtomicLong();
+    private volatile int lastFilesCompiled;
+    private volatile String lastError;
+    private volatile Date lastErrorTime;
+
+    public void compileFinished(long nanos, int filesCompiled, Throwable error) {
+        compiles.record(nanos);
+
+        if (error == null) {
+            this.filesCompiled.addAndGet(filesCompiled);
+            lastFilesCompiled = filesCompiled;
+        } else {
+            failedCompiles.incrementAndGet();
+            lastError = describe(error);
+            lastErrorTime = new Date();
+        }
+    }
+
+    public void requestWaited(long nanos) {
+        waits.record(nanos);
+    }
+
+    public long getCompileCount() {
+        return compiles.count();
+    }
+
+    public long getFailedCompileCount() {
+        return failedCompiles.get();
+    }
+
+    public double getMeanCompileMillis() {
+        return compiles.meanMillis();
+    }
+
+    public double getMedianCompileMillis() {
+        return compiles.percentileMillis(50);
+    }
+
+    public double get95thPercentileCompileMillis() {
+        return compiles.percentileMillis(95);
+    }
+
+    public double get99thPercentileCompileMillis() {
+        return compiles.percentileMillis(99);
+    }
+
+    public double getMaxCompileMillis() {
+        return compiles.maxMillis();
+    }
+
+    public long getFilesCompiled() {
+        return filesCompiled.get();
+    }
+
+    public int getLastFilesCompiled() {
+        return lastFilesCompiled;
+    }
+
+    public long getRequestWaitCount() {
+        return waits.count();
+    }
+
+    public double getMeanRequestWaitMillis() {
+        return waits.meanMillis();
+    }
+
+    public double getMedianRequestWaitMillis() {
+        return waits.percentileMillis(50);
+    }
+
+    public double get95thPercentileRequestWaitMillis() {
+        return waits.percentileMillis(95);
+    }
+
+    public double get99thPercentileRequestWaitMillis() {
+        return waits.percentileMillis(99);
+    }
+
+    public double getMaxRequestWaitMillis() {
+        return waits.maxMillis();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Date getLastErrorTime() {
+        return lastErrorTime;
+    }
+
+    public void reset() {
+        compiles.clear();
+        waits.clear();
+        failedCompiles.set(0);
+        filesCompiled.set(0);
+        lastFilesCompiled = 0;
+        lastError = null;
+        lastErrorTime = null;
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() == null ? error.getClass().getName() : error.getClass().getName() + ": " + error.getMessage();
+    }
+
+    /**
+     * Running count, total and max, plus a ring of the latest samples that percentiles
+     * are computed from.
+     */
+    static class Samples {
+        private final long[] ring;
+        private long count;
+        private long total;
+        private long max;
+
+        Samples(int size) {
+            ring = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            ring[(int) (count % ring.length)] = nanos;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized double meanMillis() {
+            return count == 0 ? 0 : toMillis(total / (double) count);
+        }
+
+        synchronized double maxMillis() {
+            return toMillis(max);
+        }
+
+        synchronized double percentileMillis(double percentile) {
+            int size = (int) Math.min(count, ring.length);
+
+            if (size == 0) {
+                return 0;
+            }
+
+            long[] sorted = Arrays.copyOf(ring, size);
+            Arrays.sort(sorted);
+
+            int index = (int) Math.ceil(percentile / 100 * size) - 1;
+            return toMillis(sorted[Math.max(0, Math.min(size - 1, index))]);
+        }
+
+        synchronized void clear() {
+            Arrays.fill(ring, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+
+        private static double toMillis(double nanos) {
+            return nanos / 1000000.0;
+        }
+    }
+}
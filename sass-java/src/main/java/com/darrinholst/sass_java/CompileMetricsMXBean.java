@@ -0,0 +1,45 @@
+package com.darrinholst.sass_java;
+
+import java.util.Date;
+
+/**
+ * JMX view of {@link CompileMetrics}. Durations are in milliseconds and percentiles are
+ * taken over the most recent samples.
+ */
+public interface CompileMetricsMXBean {
+    long getCompileCount();
+
+    long getFailedCompileCount();
+
+    double getMeanCompileMillis();
+
+    double getMedianCompileMillis();
+
+    double get95thPercentileCompileMillis();
+
+    double get99thPercentileCompileMillis();
+
+    double getMaxCompileMillis();
+
+    long getFilesCompiled();
+
+    int getLastFilesCompiled();
+
+    long getRequestWaitCount();
+
+    double getMeanRequestWaitMillis();
+
+    double getMedianRequestWaitMillis();
+
+    double get95thPercentileRequestWaitMillis();
+
+    double get99thPercentileRequestWaitMillis();
+
+    double getMaxRequestWaitMillis();
+
+    String getLastError();
+
+    Date getLastErrorTime();
+
+    void reset();
+}
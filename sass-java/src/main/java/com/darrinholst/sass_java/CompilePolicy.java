@@ -0,0 +1,21 @@
+package com.darrinholst.sass_java;
+
+/**
+ * Decides when a request to {@link SassCompilingFilter} checks the sources and
+ * compiles them again. It's asked on every request, so it shouldn't block. In lazy
+ * mode each requested stylesheet is compiled whenever its sources changed instead, and
+ * the filter refuses to start with a compile policy configured.
+ */
+public interface CompilePolicy {
+    /**
+     * @return whether to compile now, a policy that says yes has to count on the
+     * compile happening and not say yes to another request until it's done
+     */
+    boolean shouldCompile(long now);
+
+    /**
+     * Told about every compile the filter ran after init, whether this policy asked
+     * for it or the sources were being watched.
+     */
+    void compiled(long now, boolean succeeded);
+}
@@ -0,0 +1,25 @@
+package com.darrinholst.sass_java;
+
+/**
+ * Output of compiling a single stylesheet in memory.
+ */
+public class CompileResult {
+    private final String css;
+    private final String sourceMap;
+
+    public CompileResult(String css, String sourceMap) {
+        this.css = css;
+        this.sourceMap = sourceMap;
+    }
+
+    public String getCss() {
+        return css;
+    }
+
+    /**
+     * The source map json, or null when none was asked for.
+     */
+    public String getSourceMap() {
+        return sourceMap;
+    }
+}
@@ -0,0 +1,388 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long lived process that keeps a warmed up {@link Compiler} per compass project, so
+ * builds don't pay for booting JRuby and loading compass every time. It listens on a
+ * loopback port and writes the port, and a token every request has to carry, to the
+ * daemon file. It shuts itself down after being idle for a while.
+ * <p>
+ * Requests and responses are properties files, one per connection, see {@link CompileClient}.
+ */
+public class CompileServer implements Runnable {
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    public static final String PORT = "port";
+    public static final String TOKEN = "token";
+    public static final String CONFIG = "config";
+    public static final String ENGINE = "engine";
+    public static final String RUNTIME_POOL_SIZE = "runtimePoolSize";
+    public static final String LOCAL_CONTEXT_SCOPE = "localContextScope";
+    public static final String PARALLELISM = "parallelism";
+    public static final String UNPACK_GEMS = "unpackGems";
+    public static final String SASS_CACHE_LOCATION = "sassCacheLocation";
+    public static final String SASS_CACHE_MAX_BYTES = "sassCacheMaxBytes";
+    public static final String INCREMENTAL = "incremental";
+    public static final String FINGERPRINT = "fingerprint";
+    public static final String PRECOMPRESS = "precompress";
+    public static final String BUNDLES = "bundles";
+    public static final String ATOMIC_PUBLISH = "atomicPublish";
+    public static final String RETAINED_GENERATIONS = "retainedGenerations";
+    public static final String SOURCE_MAPS = "sourceMaps";
+    public static final String SOURCE_MAPS_INLINE = "sourceMapsInline";
+    public static final String SOURCE_MAPS_EMBED_SOURCES = "sourceMapsEmbedSources";
+    public static final String STATUS = "status";
+    public static final String MESSAGE = "message";
+    public static final String SASS_DIRECTORY = "sassDirectory";
+    public static final String CSS_DIRECTORY = "cssDirectory";
+    public static final String IMPORT_PATHS = "importPaths";
+    public static final String OK = "ok";
+    public static final String ERROR = "error";
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompileServer.class);
+    private static final int ACCEPT_TIMEOUT = 1000;
+
+    private final File daemonFile;
+    private final long idleTimeout;
+    private final Map<String, Compiler> compilers = new HashMap<String, Compiler>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile long lastUsed;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private ServerSocket serverSocket;
+    private String token;
+
+    public CompileServer(File daemonFile, long idleTimeout) {
+        this.daemonFile = daemonFile;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+        token = newToken();
+        lastUsed = System.currentTimeMillis();
+        writeDaemonFile();
+        LOG.info("sass compile server listening on port " + serverSocket.getLocalPort());
+    }
+
+    /**
+     * How long a client may take to send its request before it's hung up on, so one
+     * that connects and says nothing doesn't keep the server from going idle.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void run() {
+        try {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    socket.setSoTimeout(readTimeout);
+                    active.incrementAndGet();
+                    boolean handed = false;
+
+                    try {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                try {
+                                    handle(socket);
+                                } finally {
+                                    lastUsed = System.currentTimeMillis();
+                                    active.decrementAndGet();
+                                }
+                            }
+                        });
+                        handed = true;
+                    } finally {
+                        if (!handed) {
+                            active.decrementAndGet();
+                            socket.close();
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    if (isIdle()) {
+                        LOG.info("sass compile server idle for " + idleTimeout + "ms, shutting down");
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                LOG.warn("sass compile server stopped accepting connections", e);
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    public synchronized void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.debug("exception thrown while closing the compile server socket", e);
+        }
+
+        executor.shutdown();
+        deleteDaemonFile();
+
+        synchronized (compilers) {
+            for (Compiler compiler : compilers.values()) {
+                compiler.destroy();
+            }
+
+            compilers.clear();
+        }
+    }
+
+    private boolean isIdle() {
+        return active.get() == 0 && System.currentTimeMillis() - lastUsed > idleTimeout;
+    }
+
+    private void handle(Socket socket) {
+        try {
+            try {
+                Properties request = new Properties();
+                request.load(socket.getInputStream());
+
+                Properties response = token.equals(request.getProperty(TOKEN))
+                        ? compile(request)
+                        : error("invalid token");
+
+                OutputStream output = socket.getOutputStream();
+                response.store(output, null);
+                output.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            LOG.debug("exception thrown while talking to a compile client", e);
+        }
+    }
+
+    private Properties compile(Properties request) {
+        try {
+            Compiler compiler = compilerFor(request);
+
+            synchronized (compiler) {
+                compiler.setIncremental(Boolean.parseBoolean(request.getProperty(INCREMENTAL)));
+                compiler.compile();
+            }
+
+            Properties response = new Properties();
+            response.setProperty(STATUS, OK);
+            response.setProperty(SASS_DIRECTORY, compiler.getSassDirectory().getPath());
+            response.setProperty(CSS_DIRECTORY, compiler.getCssDirectory().getPath());
+            response.setProperty(IMPORT_PATHS, joinPaths(compiler.getImportPaths()));
+            return response;
+        } catch (RuntimeException e) {
+            LOG.warn("compiling " + request.getProperty(CONFIG) + " failed", e);
+            return error(String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * One compiler per project and set of options, reused by every request for them.
+     */
+    private Compiler compilerFor(Properties request) {
+        String key = new TreeMap<Object, Object>(optionsOf(request)).toString();
+
+        synchronized (compilers) {
+            Compiler compiler = compilers.get(key);
+
+            if (compiler == null) {
+                compiler = createCompiler(request);
+                compilers.put(key, compiler);
+            }
+
+            return compiler;
+        }
+    }
+
+    private Map<Object, Object> optionsOf(Properties request) {
+        Map<Object, Object> options = new HashMap<Object, Object>(request);
+        options.remove(TOKEN);
+        options.remove(INCREMENTAL);
+        return options;
+    }
+
+    protected Compiler createCompiler(Properties request) {
+        return configure(new Compiler(), request);
+    }
+
+    static Compiler configure(Compiler compiler, Properties request) {
+        compiler.setEngine(request.getProperty(ENGINE, Compiler.DEFAULT_ENGINE));
+        compiler.setConfigLocation(new File(request.getProperty(CONFIG)));
+        compiler.setRuntimePoolSize(Integer.parseInt(request.getProperty(RUNTIME_POOL_SIZE, String.valueOf(Compiler.DEFAULT_RUNTIME_POOL_SIZE))));
+        compiler.setLocalContextScope(LocalContextScope.valueOf(request.getProperty(LOCAL_CONTEXT_SCOPE, Compiler.DEFAULT_LOCAL_CONTEXT_SCOPE.name())));
+        compiler.setParallelism(Integer.parseInt(request.getProperty(PARALLELISM, "0")));
+        compiler.setFingerprint(Boolean.parseBoolean(request.getProperty(FINGERPRINT)));
+
+        if (Boolean.parseBoolean(request.getProperty(UNPACK_GEMS))) {
+            compiler.setGemsDirectory(GemBundle.DEFAULT_DIRECTORY);
+        }
+
+        if (request.getProperty(SASS_CACHE_LOCATION) != null) {
+            compiler.setCache(
+                    new File(request.getProperty(SASS_CACHE_LOCATION)),
+                    Long.parseLong(request.getProperty(SASS_CACHE_MAX_BYTES, String.valueOf(SassCache.DEFAULT_MAX_BYTES)))
+            );
+        }
+
+        compiler.setBundles(Bundler.parse(request.getProperty(BUNDLES)));
+        compiler.setStaged(Boolean.parseBoolean(request.getProperty(ATOMIC_PUBLISH)));
+        compiler.setRetainedGenerations(Integer.parseInt(request.getProperty(RETAINED_GENERATIONS, "0")));
+        compiler.setSourceMapsInline(Boolean.parseBoolean(request.getProperty(SOURCE_MAPS_INLINE)));
+        compiler.setSourceMapsEmbedSources(Boolean.parseBoolean(request.getProperty(SOURCE_MAPS_EMBED_SOURCES)));
+
+        if (request.getProperty(SOURCE_MAPS) != null) {
+            compiler.setSourceMaps(Boolean.valueOf(request.getProperty(SOURCE_MAPS)));
+        }
+
+        if (Boolean.parseBoolean(request.getProperty(PRECOMPRESS))) {
+            compiler.setCompressors(Collections.<Compressor>singletonList(new GzipCompressor()));
+        }
+
+        return compiler;
+    }
+
+    /**
+     * Paths separated the way the platform separates them in a class path.
+     */
+    public static String joinPaths(List<File> paths) {
+        StringBuilder joined = new StringBuilder();
+
+        for (File path : paths) {
+            if (joined.length() > 0) {
+                joined.append(File.pathSeparatorChar);
+            }
+
+            joined.append(path.getPath());
+        }
+
+        return joined.toString();
+    }
+
+    public static List<File> splitPaths(String joined) {
+        List<File> paths = new ArrayList<File>();
+
+        if (joined != null) {
+            for (String path : joined.split(File.pathSeparator)) {
+                if (path.length() > 0) {
+                    paths.add(new File(path));
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    private static Properties error(String message) {
+        Properties response = new Properties();
+        response.setProperty(STATUS, ERROR);
+        response.setProperty(MESSAGE, message);
+        return response;
+    }
+
+    /**
+     * The token keeps other local users from driving the server, so the file is only
+     * readable by its owner.
+     */
+    private void writeDaemonFile() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(PORT, String.valueOf(getPort()));
+        properties.setProperty(TOKEN, token);
+
+        daemonFile.getParentFile().mkdirs();
+        File temporary = new File(daemonFile.getPath() + ".tmp");
+        temporary.delete();
+        temporary.createNewFile();
+        temporary.setReadable(false, false);
+        temporary.setReadable(true, true);
+        temporary.setWritable(false, false);
+        temporary.setWritable(true, true);
+
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            properties.store(output, "sass-java compile server");
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, daemonFile);
+    }
+
+    /**
+     * Only removes the file while it still points at this server, another one may have
+     * been started since.
+     */
+    private void deleteDaemonFile() {
+        try {
+            InputStream input = new FileInputStream(daemonFile);
+            Properties properties = new Properties();
+
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            if (token.equals(properties.getProperty(TOKEN))) {
+                daemonFile.delete();
+            }
+        } catch (IOException e) {
+            LOG.debug("unable to remove " + daemonFile, e);
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return Fingerprint.toHex(bytes);
+    }
+
+    /**
+     * Usage: CompileServer [daemon file] [idle timeout in milliseconds]
+     */
+    public static void main(String[] args) throws IOException {
+        File daemonFile = args.length > 0 ? new File(args[0]) : CompileClient.defaultDaemonFile();
+        long idleTimeout = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_IDLE_TIMEOUT;
+
+        CompileServer server = new CompileServer(daemonFile, idleTimeout);
+        server.start();
+        server.run();
+        System.exit(0);
+    }
+}
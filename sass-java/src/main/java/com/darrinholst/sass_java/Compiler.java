@@ -1,64 +1,715 @@
 package com.darrinholst.sass_java;
 
-import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.LocalContextScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Compiles a compass project, or single stylesheets, with a {@link SassEngine}, and
+ * takes care of everything around it: incremental compiles, staging, post processing
+ * the output and telling the listeners.
+ */
 public class Compiler {
-    private boolean initialized;
+    private static final Logger LOG = LoggerFactory.getLogger(Compiler.class);
+
+    public static final String DEFAULT_ENGINE = CompassEngine.NAME;
+    public static final int DEFAULT_RUNTIME_POOL_SIZE = 1;
+    public static final LocalContextScope DEFAULT_LOCAL_CONTEXT_SCOPE = LocalContextScope.SINGLETHREAD;
+
     private File configLocation;
+    private int runtimePoolSize = DEFAULT_RUNTIME_POOL_SIZE;
+    private LocalContextScope localContextScope = DEFAULT_LOCAL_CONTEXT_SCOPE;
+    private int parallelism;
+    private String engineName = DEFAULT_ENGINE;
+    private SassEngine engine;
+    private boolean engineInitialized;
+    private boolean incremental;
+    private boolean fingerprintContents;
+    private List<Compressor> compressors = Collections.emptyList();
+    private boolean fingerprint;
+    private Map<String, List<String>> bundles = Collections.emptyMap();
+    private DependencyGraph lastGraph;
+    private List<CompileListener> compileListeners = Collections.emptyList();
+    private Boolean sourceMaps;
+    private boolean sourceMapsInline;
+    private boolean sourceMapsEmbedSources;
+    private File gemsDirectory;
+    private SassCache cache;
+    private boolean staged;
+    private boolean outputsChanged = true;
+    private int retainedGenerations;
+    private final ConcurrentMap<File, Object> stylesheetLocks = new ConcurrentHashMap<File, Object>();
+    private final ConcurrentMap<File, Map<File, Fingerprint>> compiledStylesheets = new ConcurrentHashMap<File, Map<File, Fingerprint>>();
+    private final Object postProcessLock = new Object();
 
     public void compile() {
-        initialize();
-        new ScriptingContainer().runScriptlet(buildCompileScript());
+        long started = System.nanoTime();
+        int filesCompiled = 0;
+        Throwable error = null;
+
+        try {
+            SassEngine engine = initialize();
+            outputsChanged = true;
+
+            if (staged) {
+                filesCompiled = compileStaged(engine);
+            } else {
+                try {
+                    filesCompiled = compileInto(engine, null);
+
+                    if (outputsChanged) {
+                        postProcess(engine.getCssDirectory(), engine.getCssDirectory());
+                    }
+                } catch (RuntimeException e) {
+                    setPreviousGraph(null);
+                    throw e;
+                }
+            }
+
+            trimCache();
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (outputsChanged || error != null) {
+                compileFinished(System.nanoTime() - started, filesCompiled, error);
+            }
+        }
+    }
+
+    /**
+     * @return whether the last compile changed the outputs, false when an incremental
+     * compile found nothing to compile or remove
+     */
+    public boolean hasChangedOutputs() {
+        return outputsChanged;
+    }
+
+    /**
+     * Compiles into the css directory of config.rb, or the given one instead.
+     */
+    private int compileInto(SassEngine engine, File outputDirectory) {
+        if (incremental) {
+            return compileIncrementally(engine, outputDirectory);
+        }
+
+        engine.compileAll(outputDirectory);
+        return compileListeners.isEmpty() ? 0 : countEntryPoints(engine.getSassDirectory());
+    }
+
+    /**
+     * Compiles into a staging directory and only then publishes the output to the css
+     * directory, see {@link OutputPublisher}.
+     */
+    private int compileStaged(SassEngine engine) {
+        OutputPublisher publisher = new OutputPublisher(engine.getCssDirectory(), retainedGenerations);
+        File staging = null;
+        boolean published = false;
+
+        try {
+            if (!publisher.hasPublished()) {
+                setPreviousGraph(null);
+            }
+
+            staging = publisher.stage();
+            int filesCompiled = compileInto(engine, staging);
+
+            if (outputsChanged) {
+                postProcess(staging, engine.getCssDirectory());
+                publisher.publish(staging);
+            }
+
+            published = true;
+            return filesCompiled;
+        } catch (IOException e) {
+            throw new RuntimeException("unable to publish stylesheets to " + engine.getCssDirectory(), e);
+        } finally {
+            if (!published) {
+                setPreviousGraph(null);
+            }
+
+            if (staging != null) {
+                publisher.discard(staging);
+            }
+        }
+    }
+
+    private void trimCache() {
+        if (cache != null) {
+            try {
+                cache.trim();
+            } catch (IOException e) {
+                LOG.warn("unable to trim the sass cache in " + cache.getDirectory(), e);
+            }
+        }
+    }
+
+    /**
+     * @param cssDirectory where the directory is published to, which keeps the state
+     *                     of the bundles
+     */
+    private void postProcess(File directory, File cssDirectory) {
+        if (sourceMapsInline) {
+            inlineSourceMaps(directory);
+        }
+
+        if (!bundles.isEmpty()) {
+            bundle(directory, cssDirectory);
+        }
+
+        if (fingerprint) {
+            fingerprint(directory);
+        }
+
+        if (!compressors.isEmpty()) {
+            precompress(directory);
+        }
+    }
+
+    /**
+     * Compiles only the stylesheet that produces the given css file, and only when the
+     * css is missing or the stylesheet or anything it imports changed since it was last
+     * compiled. Returns whether it compiled; css files that no sass source produces are
+     * left alone. Only the outputs of that stylesheet, and the bundles that include it,
+     * are post-processed afterwards. The css is written straight to the css directory,
+     * whether or not compiles are staged, see {@link #setStaged}.
+     */
+    public boolean compileStylesheet(File cssFile) {
+        long started = System.nanoTime();
+        boolean compiled = false;
+        Throwable error = null;
+
+        try {
+            SassEngine engine = initialize();
+            File source = sourceOf(engine, cssFile);
+
+            if (source == null) {
+                return false;
+            }
+
+            synchronized (lockFor(source)) {
+                if (isUntouched(source, cssFile)) {
+                    return false;
+                }
+
+                DependencyGraph graph = DependencyGraph.scanEntryPoint(engine.getSassDirectory(), engine.getImportPaths(), source);
+
+                if (isStale(graph, source, cssFile)) {
+                    compiledStylesheets.remove(source);
+                    engine.compile(Collections.singletonList(graph.relativePathOf(source.getCanonicalFile())), Collections.<String>emptyList(), null);
+                    compiled = true;
+                }
+
+                compiledStylesheets.put(source, graph.getFingerprints());
+            }
+
+            if (compiled) {
+                postProcessStylesheet(engine.getCssDirectory(), cssOf(cssFile));
+                trimCache();
+            }
+
+            return compiled;
+        } catch (IOException e) {
+            error = e;
+            throw new RuntimeException("unable to scan the sass sources of " + cssFile, e);
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (compiled || error != null) {
+                compileFinished(System.nanoTime() - started, compiled ? 1 : 0, error);
+            }
+        }
+    }
+
+    /**
+     * The entry point compass compiles to the given css file, or source map, if any.
+     */
+    private File sourceOf(SassEngine engine, File cssFile) throws IOException {
+        String cssRoot = engine.getCssDirectory().getCanonicalPath() + File.separator;
+        String path = cssFile.getCanonicalPath();
+
+        if (!path.startsWith(cssRoot)) {
+            return null;
+        }
+
+        String relative = path.substring(cssRoot.length()).replaceFirst("\\.css(\\.map)?$", "");
+
+        for (String extension : new String[]{".scss", ".sass"}) {
+            File source = new File(engine.getSassDirectory(), relative + extension);
+
+            if (source.isFile() && !DependencyGraph.isPartial(source)) {
+                return source;
+            }
+        }
+
+        return null;
+    }
+
+    private static File cssOf(File cssFile) {
+        return new File(cssFile.getPath().replaceFirst("\\.map$", ""));
+    }
+
+    /**
+     * Whether the css is there and none of the sources it was last compiled from, or
+     * last found up to date with, changed size or modification time. Only stats the
+     * files, so the imports aren't read and parsed again on every request; a new file
+     * that an unchanged import would now resolve to is only noticed once a source changes.
+     */
+    private boolean isUntouched(File source, File cssFile) {
+        Map<File, Fingerprint> compiledFrom = compiledStylesheets.get(source);
+
+        if (compiledFrom == null || !cssOf(cssFile).isFile()) {
+            return false;
+        }
+
+        for (Map.Entry<File, Fingerprint> file : compiledFrom.entrySet()) {
+            if (file.getKey().lastModified() != file.getValue().getLastModified() || file.getKey().length() != file.getValue().getLength()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares the sources with the ones the css was last compiled from, or, for css
+     * compiled before this compiler was started, with the modification time of the css,
+     * which a source saved within the file system's timestamp resolution shares.
+     */
+    private boolean isStale(DependencyGraph graph, File source, File cssFile) {
+        File css = cssOf(cssFile);
+
+        if (!css.isFile()) {
+            return true;
+        }
+
+        Map<File, Fingerprint> compiledFrom = compiledStylesheets.get(source);
+
+        if (compiledFrom != null) {
+            return !compiledFrom.equals(graph.getFingerprints());
+        }
+
+        for (Fingerprint fingerprint : graph.getFingerprints().values()) {
+            if (fingerprint.getLastModified() >= css.lastModified()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The part of {@link #postProcess} that concerns one stylesheet. Runs one at a time,
+     * as stylesheets compiled at the same time share the manifest and the bundles.
+     */
+    private void postProcessStylesheet(File cssDirectory, File css) {
+        try {
+            String root = cssDirectory.getCanonicalPath() + File.separator;
+            String name = css.getCanonicalPath().substring(root.length()).replace(File.separatorChar, '/');
+            List<String> outputs = new ArrayList<String>();
+            outputs.add(name);
+
+            for (Map.Entry<String, List<String>> bundle : bundles.entrySet()) {
+                if (bundle.getValue().contains(name)) {
+                    outputs.add(bundle.getKey());
+                }
+            }
+
+            synchronized (postProcessLock) {
+                if (sourceMapsInline) {
+                    new SourceMapInliner().inlineStylesheet(css);
+                }
+
+                if (outputs.size() > 1) {
+                    new Bundler(bundles).bundle(cssDirectory);
+                }
+
+                for (String output : outputs) {
+                    if (fingerprint) {
+                        new Fingerprinter().fingerprintStylesheet(cssDirectory, output);
+                    }
+
+                    if (!compressors.isEmpty()) {
+                        new Precompressor(compressors).precompressStylesheet(new File(cssDirectory, output));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to post-process " + css, e);
+        }
+    }
+
+    private Object lockFor(File source) {
+        Object lock = new Object();
+        Object existing = stylesheetLocks.putIfAbsent(source, lock);
+        return existing != null ? existing : lock;
+    }
+
+    /**
+     * Compiles one stylesheet in memory. Nothing is read from disk besides imports, and
+     * the compass project, if there is one, is left alone, though its sass directory is
+     * searched for imports after the load paths of the options. Imports relative to the
+     * stylesheet are looked for next to its filename, which is taken relative to that
+     * sass directory when it isn't absolute. Nothing is written to disk either, unless a
+     * sass cache is set, see {@link #setCache}, which parsed imports are then kept in.
+     */
+    public CompileResult compile(String source, SassOptions options) {
+        long started = System.nanoTime();
+        Throwable error = null;
+
+        try {
+            return initialize().compile(source, options);
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            compileFinished(System.nanoTime() - started, error == null ? 1 : 0, error);
+        }
+    }
+
+    public CompileResult compile(Reader source, SassOptions options) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+
+        while ((read = source.read(buffer)) != -1) {
+            contents.append(buffer, 0, read);
+        }
+
+        return compile(contents.toString(), options);
+    }
+
+    /**
+     * Imports are also looked up next to the file, and the syntax follows its extension.
+     */
+    public CompileResult compile(Path file, SassOptions options) throws IOException {
+        File absolute = file.toAbsolutePath().toFile();
+
+        SassOptions fileOptions = new SassOptions();
+        fileOptions.setSyntax(absolute.getName().endsWith(".sass") ? SassOptions.Syntax.SASS : SassOptions.Syntax.SCSS);
+        fileOptions.setStyle(options.getStyle());
+        fileOptions.setSourceMap(options.isSourceMap());
+        fileOptions.setFilename(options.getFilename() != null ? options.getFilename() : absolute.getPath());
+        fileOptions.getLoadPaths().add(absolute.getParentFile());
+        fileOptions.getLoadPaths().addAll(options.getLoadPaths());
+
+        return compile(new String(Files.readAllBytes(file), "UTF-8"), fileOptions);
     }
 
-    private void initialize() {
-        if (!initialized) {
-            new ScriptingContainer().runScriptlet(buildInitializationScript());
-            initialized = true;
+    private void compileFinished(long nanos, int filesCompiled, Throwable error) {
+        for (CompileListener listener : compileListeners) {
+            try {
+                listener.compileFinished(nanos, filesCompiled, error);
+            } catch (RuntimeException e) {
+                LOG.warn("exception thrown by compile listener " + listener, e);
+            }
         }
     }
 
-    private String buildCompileScript() {
-        StringWriter raw = new StringWriter();
-        PrintWriter script = new PrintWriter(raw);
+    private int countEntryPoints(File directory) {
+        int count = 0;
+        File[] files = directory.listFiles();
 
-        script.println("Dir.chdir(File.dirname('" + getConfigLocation() + "')) do ");
-        script.println("  compiler = Compass.sass_compiler                        ");
-        script.println("  compiler.logger = Compass::NullLogger.new               ");
-        script.println("  compiler.clean!                                         ");
-        script.println("  compiler.compile!                                       ");
-        script.println("end                                                       ");
-        script.flush();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    count += countEntryPoints(file);
+                } else if (DependencyGraph.isSassFile(file) && !DependencyGraph.isPartial(file)) {
+                    count++;
+                }
+            }
+        }
 
-        return raw.toString();
+        return count;
     }
 
-    private String buildInitializationScript() {
-        StringWriter raw = new StringWriter();
-        PrintWriter script = new PrintWriter(raw);
+    /**
+     * Skips the clean and only hands compass the stylesheets whose sources, or the
+     * partials they import, changed since the last successful compile. Nothing runs
+     * in ruby at all when nothing changed.
+     */
+    private synchronized int compileIncrementally(SassEngine engine, File outputDirectory) {
+        DependencyGraph graph = scanSassDirectory(engine);
+        List<File> stale = graph.getStaleEntryPoints(lastGraph);
+        List<File> removed = graph.getRemovedEntryPoints(lastGraph);
+
+        outputsChanged = !stale.isEmpty() || !removed.isEmpty();
 
-        script.println("require 'compass'                                               ");
-        script.println("require 'compass/sass_compiler'                                 ");
-        script.println("Compass.add_project_configuration '" + getConfigLocation() + "' ");
-        script.println("Compass.configure_sass_plugin!                                  ");
-        script.flush();
+        if (outputsChanged) {
+            engine.compile(relativePathsOf(graph, stale), relativePathsOf(graph, removed), outputDirectory);
+        }
 
-        return raw.toString();
+        lastGraph = graph;
+        return stale.size();
     }
 
-    private String getConfigLocation() {
-        return replaceSlashes(configLocation.getAbsolutePath());
+    private void inlineSourceMaps(File directory) {
+        try {
+            new SourceMapInliner().inline(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to inline source maps in " + directory, e);
+        }
     }
 
-    private String replaceSlashes(String path) {
-        return path.replaceAll("\\\\", "/");
+    private void bundle(File directory, File cssDirectory) {
+        try {
+            new Bundler(bundles).bundle(directory, Bundler.stateDirectoryOf(cssDirectory));
+        } catch (IOException e) {
+            throw new RuntimeException("unable to bundle stylesheets in " + directory, e);
+        }
+    }
+
+    private void fingerprint(File directory) {
+        try {
+            new Fingerprinter().fingerprint(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to fingerprint stylesheets in " + directory, e);
+        }
+    }
+
+    private void precompress(File directory) {
+        try {
+            new Precompressor(compressors).precompress(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to precompress stylesheets in " + directory, e);
+        }
+    }
+
+    private List<String> relativePathsOf(DependencyGraph graph, List<File> files) {
+        List<String> paths = new ArrayList<String>();
+
+        for (File file : files) {
+            paths.add(graph.relativePathOf(file));
+        }
+
+        return paths;
+    }
+
+    private DependencyGraph scanSassDirectory(SassEngine engine) {
+        File directory = engine.getSassDirectory();
+
+        try {
+            return DependencyGraph.scan(directory, engine.getImportPaths(), configLocation, fingerprintContents);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to scan sass sources in " + directory, e);
+        }
+    }
+
+    public File getSassDirectory() {
+        return initialize().getSassDirectory();
+    }
+
+    public File getCssDirectory() {
+        return initialize().getCssDirectory();
+    }
+
+    public List<File> getImportPaths() {
+        return initialize().getImportPaths();
+    }
+
+    private synchronized SassEngine initialize() {
+        if (engine == null) {
+            engine = loadEngine(engineName);
+        }
+
+        if (!engineInitialized) {
+            SassEngineConfig config = new SassEngineConfig();
+            config.setConfigLocation(configLocation);
+            config.setRuntimePoolSize(runtimePoolSize);
+            config.setLocalContextScope(localContextScope);
+            config.setParallelism(parallelism);
+            config.setSourceMaps(sourceMaps);
+            config.setSourceMapsEmbedSources(sourceMapsEmbedSources);
+            config.setGemsDirectory(gemsDirectory);
+            config.setCacheLocation(cache == null ? null : cache.getDirectory());
+            engine.initialize(config);
+            engineInitialized = true;
+        }
+
+        return engine;
+    }
+
+    /**
+     * The engine of the given name found with {@link ServiceLoader}.
+     */
+    static SassEngine loadEngine(String name) {
+        List<String> found = new ArrayList<String>();
+
+        for (SassEngine engine : ServiceLoader.load(SassEngine.class, Compiler.class.getClassLoader())) {
+            if (engine.getName().equals(name)) {
+                return engine;
+            }
+
+            found.add(engine.getName());
+        }
+
+        throw new IllegalArgumentException("no sass engine named " + name + ", the ones available are " + found);
+    }
+
+    /**
+     * Puts the output of the previous staged compile back, see {@link #setRetainedGenerations}.
+     * The next incremental compile compiles everything again.
+     *
+     * @return false when there is no earlier output to go back to
+     */
+    public boolean rollback() {
+        File directory = getCssDirectory();
+
+        try {
+            boolean rolledBack = new OutputPublisher(directory, retainedGenerations).rollback();
+            setPreviousGraph(null);
+            return rolledBack;
+        } catch (IOException e) {
+            throw new RuntimeException("unable to roll back stylesheets in " + directory, e);
+        }
+    }
+
+    public synchronized void destroy() {
+        if (engineInitialized) {
+            engine.destroy();
+            engineInitialized = false;
+        }
+    }
+
+    /**
+     * Picks the {@link SassEngine} to compile with by name, {@link #DEFAULT_ENGINE} unless
+     * another one is on the classpath and asked for.
+     */
+    public synchronized void setEngine(String engineName) {
+        destroy();
+        this.engineName = engineName;
+        this.engine = null;
+    }
+
+    public synchronized void setEngine(SassEngine engine) {
+        destroy();
+        this.engine = engine;
     }
 
     public void setConfigLocation(File configLocation) {
         this.configLocation = configLocation;
     }
+
+    public void setRuntimePoolSize(int runtimePoolSize) {
+        this.runtimePoolSize = runtimePoolSize;
+    }
+
+    /**
+     * With a runtime pool of more than one, how many of its runtimes compile stylesheets
+     * at the same time, 0 for as many as there are processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setLocalContextScope(LocalContextScope localContextScope) {
+        this.localContextScope = localContextScope;
+    }
+
+    /**
+     * Unpack the gems into the given directory, once, and load them from there, which
+     * is a lot quicker than loading them from inside the jar, see {@link GemBundle}.
+     */
+    public void setGemsDirectory(File gemsDirectory) {
+        this.gemsDirectory = gemsDirectory;
+    }
+
+    /**
+     * Keep the parsed stylesheets in the given directory instead of the .sass-cache of
+     * the project, so they're reused after a restart, and by other processes using the
+     * same directory. Once it holds more than the given number of bytes, what was
+     * cached longest ago is removed after a compile, see {@link SassCache}.
+     *
+     * @param maxBytes 0 to let it grow
+     */
+    public void setCache(File location, long maxBytes) {
+        this.cache = location == null ? null : new SassCache(location.getAbsoluteFile(), maxBytes);
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setFingerprintContents(boolean fingerprintContents) {
+        this.fingerprintContents = fingerprintContents;
+    }
+
+    public void setFingerprint(boolean fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Sources as they were at the last compile, for example in an earlier build, so
+     * the first incremental compile doesn't have to compile everything.
+     */
+    public synchronized void setPreviousGraph(DependencyGraph previousGraph) {
+        this.lastGraph = previousGraph;
+    }
+
+    /**
+     * Whether to write source maps, null leaves it to the {@code sourcemap} setting of
+     * config.rb.
+     */
+    public void setSourceMaps(Boolean sourceMaps) {
+        this.sourceMaps = sourceMaps;
+    }
+
+    /**
+     * Embed each source map in its stylesheet as a data URI instead of a separate file.
+     */
+    public void setSourceMapsInline(boolean sourceMapsInline) {
+        this.sourceMapsInline = sourceMapsInline;
+    }
+
+    /**
+     * Include the sass sources themselves in the source maps, so browsers don't have to
+     * fetch them.
+     */
+    public void setSourceMapsEmbedSources(boolean sourceMapsEmbedSources) {
+        this.sourceMapsEmbedSources = sourceMapsEmbedSources;
+    }
+
+    /**
+     * Compile into a staging directory and publish the output to the css directory with
+     * atomic moves once it's complete, instead of cleaning and writing it in place.
+     */
+    public void setStaged(boolean staged) {
+        this.staged = staged;
+    }
+
+    /**
+     * How many earlier outputs a staged compile keeps to {@link #rollback} to.
+     */
+    public void setRetainedGenerations(int retainedGenerations) {
+        this.retainedGenerations = retainedGenerations;
+    }
+
+    /**
+     * Minified bundles to write after each compile, see {@link Bundler}.
+     */
+    public void setBundles(Map<String, List<String>> bundles) {
+        this.bundles = bundles;
+    }
+
+    public void setCompressors(List<Compressor> compressors) {
+        this.compressors = compressors;
+    }
+
+    public void setCompileListeners(List<CompileListener> compileListeners) {
+        this.compileListeners = compileListeners;
+    }
 }
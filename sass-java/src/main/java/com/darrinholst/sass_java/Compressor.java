@@ -0,0 +1,18 @@
+package com.darrinholst.sass_java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Produces a pre-compressed variant of each compiled stylesheet, written next to it
+ * with {@link #getExtension()} appended, and served to clients that accept
+ * {@link #getEncoding()}.
+ */
+public interface Compressor {
+    String getEncoding();
+
+    String getExtension();
+
+    void compress(InputStream input, OutputStream output) throws IOException;
+}
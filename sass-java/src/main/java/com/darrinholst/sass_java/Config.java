@@ -2,6 +2,8 @@ package com.darrinholst.sass_java;
 
 import javax.servlet.FilterConfig;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Config {
     private FilterConfig filterConfig;
@@ -14,6 +16,10 @@ public class Config {
         return new File(filterConfig.getServletContext().getRealPath("/"));
     }
 
+    public int getServletMajorVersion() {
+        return filterConfig.getServletContext().getMajorVersion();
+    }
+
     public String getString(String parameterName) {
         return getString(parameterName, null);
     }
@@ -37,4 +43,44 @@ public class Config {
             return Boolean.parseBoolean(value);
         }
     }
+
+    public long getLong(String parameterName, long defaultValue) {
+        String value = filterConfig.getInitParameter(parameterName);
+
+        if (value == null) {
+            return defaultValue;
+        } else {
+            return Long.parseLong(value.trim());
+        }
+    }
+
+    public int getInt(String parameterName, int defaultValue) {
+        String value = filterConfig.getInitParameter(parameterName);
+
+        if (value == null) {
+            return defaultValue;
+        } else {
+            return Integer.parseInt(value.trim());
+        }
+    }
+
+    public <T> List<T> getInstances(String parameterName, Class<T> type, String defaultValue) {
+        List<T> instances = new ArrayList<T>();
+
+        for (String className : getString(parameterName, defaultValue).split(",")) {
+            if (className.trim().length() > 0) {
+                instances.add(newInstance(className.trim(), type));
+            }
+        }
+
+        return instances;
+    }
+
+    private <T> T newInstance(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className, true, Config.class.getClassLoader()).newInstance());
+        } catch (Exception e) {
+            throw new IllegalArgumentException("unable to create " + type.getSimpleName() + " " + className, e);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package com.darrinholst.sass_java;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Removes what a browser doesn't need from compiled css in a single pass over it:
+ * comments, except {@code /*!} ones, whitespace that doesn't separate anything, and
+ * the last semicolon of each block. Strings are copied as they are.
+ * <p>
+ * It deliberately leaves values alone, sass already wrote them as short as it can
+ * with the compressed style, and the whitespace around {@code +} and {@code -} is
+ * significant inside {@code calc()}.
+ */
+public class CssMinifier {
+    private static final String TIGHT = "{};,>";
+
+    public void minify(Reader reader, Writer output) throws IOException {
+        PushbackReader input = new PushbackReader(reader, 1);
+        int last = -1;
+        boolean pendingSpace = false;
+        boolean pendingSemicolon = false;
+        int c;
+
+        while ((c = input.read()) != -1) {
+            if (c == '/') {
+                int next = input.read();
+
+                if (next == '*') {
+                    skipComment(input, output);
+                    continue;
+                }
+
+                if (next != -1) {
+                    input.unread(next);
+                }
+            }
+
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+
+            if (c == ';') {
+                pendingSemicolon = true;
+                pendingSpace = false;
+                continue;
+            }
+
+            if (pendingSemicolon && c != '}') {
+                output.write(';');
+                last = ';';
+            }
+
+            if (pendingSpace && last != -1 && TIGHT.indexOf(last) == -1 && last != ':' && TIGHT.indexOf(c) == -1) {
+                output.write(' ');
+            }
+
+            pendingSpace = false;
+            pendingSemicolon = false;
+            output.write(c);
+            last = c;
+
+            if (c == '"' || c == '\'') {
+                copyString(input, output, c);
+            }
+        }
+
+        if (pendingSemicolon) {
+            output.write(';');
+        }
+    }
+
+    private void copyString(Reader input, Writer output, int quote) throws IOException {
+        int c;
+
+        while ((c = input.read()) != -1) {
+            output.write(c);
+
+            if (c == '\\') {
+                int escaped = input.read();
+
+                if (escaped != -1) {
+                    output.write(escaped);
+                }
+            } else if (c == quote) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called after the opening of a comment, keeps it when it starts with an
+     * exclamation mark, license comments mostly.
+     */
+    private void skipComment(Reader input, Writer output) throws IOException {
+        int c = input.read();
+        boolean keep = c == '!';
+
+        if (keep) {
+            output.write("/*");
+        }
+
+        int previous = -1;
+
+        while (c != -1) {
+            if (keep) {
+                output.write(c);
+            }
+
+            if (previous == '*' && c == '/') {
+                return;
+            }
+
+            previous = c;
+            c = input.read();
+        }
+    }
+}
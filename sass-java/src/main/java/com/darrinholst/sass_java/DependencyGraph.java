@@ -0,0 +1,404 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot of the sass sources in a directory: a fingerprint for every file and the
+ * files each one imports. Comparing two snapshots tells which stylesheets need to be
+ * recompiled because something they transitively import has changed.
+ * <p>
+ * Imports are resolved against the importing file, the sass directory and the import
+ * paths, and whatever they resolve to is fingerprinted too, also when it lives outside
+ * the sass directory, e.g. in {@code ../shared}. Only the stylesheets in the sass
+ * directory are entry points though. A change to the config file, which decides how
+ * everything is compiled, makes every entry point stale.
+ */
+public class DependencyGraph {
+    private static final Pattern BLOCK_COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern LINE_COMMENT = Pattern.compile("(^|\\s)//[^\\n]*");
+    private static final Pattern IMPORT = Pattern.compile("@import\\s+([^;\\n]+)");
+    private static final String[] EXTENSIONS = {".scss", ".sass"};
+
+    private final File sassDirectory;
+    private final List<File> importPaths = new ArrayList<File>();
+    private File configLocation;
+    private final Map<File, Fingerprint> fingerprints = new TreeMap<File, Fingerprint>();
+    private final Map<File, Set<File>> imports = new TreeMap<File, Set<File>>();
+    private final Map<File, Set<File>> unresolvedImports = new TreeMap<File, Set<File>>();
+
+    private DependencyGraph(File sassDirectory) {
+        this.sassDirectory = sassDirectory;
+    }
+
+    public static DependencyGraph scan(File sassDirectory, boolean hashContents) throws IOException {
+        return scan(sassDirectory, Collections.<File>emptyList(), null, hashContents);
+    }
+
+    /**
+     * @param importPaths    where else imports are looked for, e.g. compass's additional import paths
+     * @param configLocation fingerprinted along with the sources, may be null
+     */
+    public static DependencyGraph scan(File sassDirectory, List<File> importPaths, File configLocation, boolean hashContents) throws IOException {
+        DependencyGraph graph = new DependencyGraph(sassDirectory.getCanonicalFile());
+        graph.track(importPaths, configLocation, hashContents);
+        graph.scanDirectory(graph.sassDirectory, hashContents);
+        graph.scanOutsideImports(hashContents);
+        return graph;
+    }
+
+    /**
+     * Snapshot of just one stylesheet and everything it transitively imports, without
+     * reading anything else in the sass directory.
+     */
+    public static DependencyGraph scanEntryPoint(File sassDirectory, File entryPoint) throws IOException {
+        return scanEntryPoint(sassDirectory, Collections.<File>emptyList(), entryPoint);
+    }
+
+    public static DependencyGraph scanEntryPoint(File sassDirectory, List<File> importPaths, File entryPoint) throws IOException {
+        DependencyGraph graph = new DependencyGraph(sassDirectory.getCanonicalFile());
+        graph.track(importPaths, null, false);
+        Deque<File> pending = new ArrayDeque<File>();
+        pending.push(entryPoint.getCanonicalFile());
+
+        while (!pending.isEmpty()) {
+            File file = pending.pop();
+
+            if (!graph.fingerprints.containsKey(file) && file.isFile()) {
+                graph.fingerprints.put(file, Fingerprint.of(file, false));
+                graph.scanImports(file);
+                pending.addAll(graph.getImports(file));
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * Rebuilds a snapshot from fingerprints recorded earlier, good enough to be the
+     * previous graph when looking for stale entry points.
+     */
+    public static DependencyGraph restore(File sassDirectory, Map<File, Fingerprint> fingerprints) throws IOException {
+        DependencyGraph graph = new DependencyGraph(sassDirectory.getCanonicalFile());
+        graph.fingerprints.putAll(fingerprints);
+        return graph;
+    }
+
+    private void track(List<File> paths, File config, boolean hashContents) throws IOException {
+        for (File path : paths) {
+            importPaths.add(path.getCanonicalFile());
+        }
+
+        if (config != null && config.isFile()) {
+            configLocation = config.getCanonicalFile();
+            fingerprints.put(configLocation, Fingerprint.of(configLocation, hashContents));
+        }
+    }
+
+    public static boolean isSassFile(File file) {
+        String name = file.getName();
+        return name.endsWith(".scss") || name.endsWith(".sass");
+    }
+
+    public static boolean isPartial(File file) {
+        return file.getName().startsWith("_");
+    }
+
+    public File getSassDirectory() {
+        return sassDirectory;
+    }
+
+    public Map<File, Fingerprint> getFingerprints() {
+        return Collections.unmodifiableMap(fingerprints);
+    }
+
+    public List<File> getImportPaths() {
+        return Collections.unmodifiableList(importPaths);
+    }
+
+    public Set<File> getImports(File file) {
+        Set<File> direct = imports.get(file);
+        return direct == null ? Collections.<File>emptySet() : Collections.unmodifiableSet(direct);
+    }
+
+    public List<File> getEntryPoints() {
+        List<File> entryPoints = new ArrayList<File>();
+
+        for (File file : fingerprints.keySet()) {
+            if (isInSassDirectory(file) && isSassFile(file) && !isPartial(file)) {
+                entryPoints.add(file);
+            }
+        }
+
+        return entryPoints;
+    }
+
+    public Set<File> getTransitiveDependencies(File file) {
+        Set<File> seen = new LinkedHashSet<File>();
+        Deque<File> pending = new ArrayDeque<File>();
+        pending.push(file);
+
+        while (!pending.isEmpty()) {
+            File next = pending.pop();
+
+            if (seen.add(next)) {
+                for (File imported : getImports(next)) {
+                    pending.push(imported);
+                }
+            }
+        }
+
+        return seen;
+    }
+
+    /**
+     * Entry points that are new since the previous snapshot or that import, directly or
+     * through partials, a file that was added, removed or changed. Everything is stale
+     * when there is no previous snapshot.
+     */
+    public List<File> getStaleEntryPoints(DependencyGraph previous) {
+        if (previous == null) {
+            return getEntryPoints();
+        }
+
+        Set<File> changed = new LinkedHashSet<File>();
+
+        for (Map.Entry<File, Fingerprint> entry : fingerprints.entrySet()) {
+            if (!entry.getValue().equals(previous.fingerprints.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        for (File file : previous.fingerprints.keySet()) {
+            if (!fingerprints.containsKey(file)) {
+                changed.add(file);
+            }
+        }
+
+        if (configLocation != null && changed.contains(configLocation)) {
+            return getEntryPoints();
+        }
+
+        List<File> stale = new ArrayList<File>();
+
+        for (File entryPoint : getEntryPoints()) {
+            Set<File> dependencies = getTransitiveDependencies(entryPoint);
+            dependencies.addAll(unresolvedCandidatesOf(dependencies));
+
+            if (!Collections.disjoint(dependencies, changed)) {
+                stale.add(entryPoint);
+            }
+        }
+
+        return stale;
+    }
+
+    public List<File> getRemovedEntryPoints(DependencyGraph previous) {
+        List<File> removed = new ArrayList<File>();
+
+        if (previous != null) {
+            for (File entryPoint : previous.getEntryPoints()) {
+                if (!fingerprints.containsKey(entryPoint)) {
+                    removed.add(entryPoint);
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    public String relativePathOf(File file) {
+        String root = sassDirectory.getPath() + File.separator;
+        String path = file.getPath();
+        return (path.startsWith(root) ? path.substring(root.length()) : path).replace(File.separatorChar, '/');
+    }
+
+    public boolean isInSassDirectory(File file) {
+        return file.getPath().startsWith(sassDirectory.getPath() + File.separator);
+    }
+
+    /**
+     * An import that no longer resolves usually means the partial it pointed at was
+     * deleted, so every place it could have been found counts as a dependency.
+     */
+    private Set<File> unresolvedCandidatesOf(Set<File> files) {
+        Set<File> candidates = new LinkedHashSet<File>();
+
+        for (File file : files) {
+            Set<File> unresolved = unresolvedImports.get(file);
+
+            if (unresolved != null) {
+                candidates.addAll(unresolved);
+            }
+        }
+
+        return candidates;
+    }
+
+    private void scanDirectory(File directory, boolean hashContents) throws IOException {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scanDirectory(file, hashContents);
+            } else if (isSassFile(file)) {
+                fingerprints.put(file, Fingerprint.of(file, hashContents));
+                scanImports(file);
+            }
+        }
+    }
+
+    /**
+     * Follows the imports that lead out of the sass directory, and the imports of what
+     * they lead to, so those files are part of the snapshot too.
+     */
+    private void scanOutsideImports(boolean hashContents) throws IOException {
+        Deque<File> pending = new ArrayDeque<File>();
+
+        for (Set<File> resolved : imports.values()) {
+            pending.addAll(resolved);
+        }
+
+        while (!pending.isEmpty()) {
+            File file = pending.pop();
+
+            if (!fingerprints.containsKey(file) && file.isFile()) {
+                fingerprints.put(file, Fingerprint.of(file, hashContents));
+                scanImports(file);
+                pending.addAll(getImports(file));
+            }
+        }
+    }
+
+    private void scanImports(File file) throws IOException {
+        Set<File> resolved = new LinkedHashSet<File>();
+        Set<File> unresolved = new LinkedHashSet<File>();
+        Matcher matcher = IMPORT.matcher(stripComments(read(file)));
+
+        while (matcher.find()) {
+            for (String target : matcher.group(1).split(",")) {
+                String name = unquote(target.trim());
+
+                if (isSassImport(name)) {
+                    List<File> candidates = candidatesFor(file.getParentFile(), name);
+                    File found = firstExisting(candidates);
+
+                    if (found != null) {
+                        resolved.add(found);
+                    } else {
+                        unresolved.addAll(candidates);
+                    }
+                }
+            }
+        }
+
+        imports.put(file, resolved);
+
+        if (!unresolved.isEmpty()) {
+            unresolvedImports.put(file, unresolved);
+        }
+    }
+
+    private List<File> candidatesFor(File importingDirectory, String name) {
+        List<File> candidates = new ArrayList<File>();
+        List<File> bases = new ArrayList<File>();
+        bases.add(importingDirectory);
+        bases.add(sassDirectory);
+        bases.addAll(importPaths);
+
+        for (File base : bases) {
+            File target = new File(base, name);
+            File parent = target.getParentFile();
+            String fileName = target.getName();
+            boolean hasExtension = isSassFile(target);
+
+            for (String prefix : new String[]{"", "_"}) {
+                if (hasExtension) {
+                    candidates.add(canonical(new File(parent, prefix + fileName)));
+                } else {
+                    for (String extension : EXTENSIONS) {
+                        candidates.add(canonical(new File(parent, prefix + fileName + extension)));
+                    }
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+    private File firstExisting(List<File> candidates) {
+        for (File candidate : candidates) {
+            if (fingerprints.containsKey(candidate) || candidate.isFile()) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSassImport(String name) {
+        return name.length() > 0
+                && !name.startsWith("url(")
+                && !name.startsWith("http://")
+                && !name.startsWith("https://")
+                && !name.startsWith("//")
+                && !name.endsWith(".css")
+                && !name.contains("*");
+    }
+
+    private static String unquote(String name) {
+        if (name.length() >= 2 && (name.charAt(0) == '"' || name.charAt(0) == '\'')) {
+            return name.substring(1, name.length() - 1);
+        }
+
+        return name;
+    }
+
+    private static String stripComments(String source) {
+        return LINE_COMMENT.matcher(BLOCK_COMMENT.matcher(source).replaceAll("")).replaceAll("$1");
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+        try {
+            StringBuilder contents = new StringBuilder((int) file.length());
+            char[] buffer = new char[8192];
+            int read;
+
+            while ((read = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, read);
+            }
+
+            return contents.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
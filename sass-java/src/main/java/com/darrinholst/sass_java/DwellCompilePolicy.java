@@ -0,0 +1,111 @@
+package com.darrinholst.sass_java;
+
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles at most once per dwell, and after a compile fails waits twice as long
+ * before the next one for every failure in a row, up to a maximum, so a broken
+ * stylesheet isn't compiled again on every request. Quiet hours, e.g. when a deploy
+ * or backup is busy with the disk, skip compiling altogether.
+ * <p>
+ * The time of the next compile is claimed with a compare and set, so requests in
+ * between never take a lock.
+ */
+public class DwellCompilePolicy implements CompilePolicy {
+    public static final long DEFAULT_DWELL = 1000;
+    public static final long DEFAULT_MAX_BACKOFF = 60000;
+
+    private static final Pattern QUIET_HOURS = Pattern.compile("(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})");
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final long dwell;
+    private final long maxBackoff;
+    private final AtomicLong nextCompile = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+    private int quietFrom = -1;
+    private int quietUntil = -1;
+
+    public DwellCompilePolicy() {
+        this(DEFAULT_DWELL, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * @param maxBackoff the longest wait after failed compiles, no longer than the dwell to not back off at all
+     */
+    public DwellCompilePolicy(long dwell, long maxBackoff) {
+        this.dwell = dwell;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public boolean shouldCompile(long now) {
+        long next = nextCompile.get();
+
+        if (now < next || isQuiet(now)) {
+            return false;
+        }
+
+        return nextCompile.compareAndSet(next, now + dwell);
+    }
+
+    public void compiled(long now, boolean succeeded) {
+        if (succeeded) {
+            failures.set(0);
+            return;
+        }
+
+        int failed = failures.incrementAndGet();
+        long backoff = Math.max(dwell, Math.min(maxBackoff, dwell << Math.min(failed, 20)));
+        long next;
+
+        do {
+            next = nextCompile.get();
+        } while (next < now + backoff && !nextCompile.compareAndSet(next, now + backoff));
+    }
+
+    /**
+     * @param quietHours local times as {@code 22:00-06:00}, null for none
+     */
+    public void setQuietHours(String quietHours) {
+        if (quietHours == null || quietHours.trim().length() == 0) {
+            quietFrom = quietUntil = -1;
+            return;
+        }
+
+        Matcher matcher = QUIET_HOURS.matcher(quietHours.trim());
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("quiet hours are given as 22:00-06:00 but got " + quietHours);
+        }
+
+        quietFrom = minuteOf(matcher.group(1), matcher.group(2), quietHours);
+        quietUntil = minuteOf(matcher.group(3), matcher.group(4), quietHours);
+    }
+
+    private boolean isQuiet(long now) {
+        if (quietFrom == quietUntil) {
+            return false;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+
+        return quietFrom < quietUntil
+                ? minute >= quietFrom && minute < quietUntil
+                : minute >= quietFrom || minute < quietUntil;
+    }
+
+    private int minuteOf(String hours, String minutes, String quietHours) {
+        int minute = Integer.parseInt(hours) * 60 + Integer.parseInt(minutes);
+
+        if (minute >= MINUTES_PER_DAY || Integer.parseInt(minutes) >= 60) {
+            throw new IllegalArgumentException(quietHours + " isn't a time of day");
+        }
+
+        return minute;
+    }
+}
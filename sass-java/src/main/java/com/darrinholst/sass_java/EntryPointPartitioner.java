@@ -0,0 +1,97 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the stylesheets of a compile into batches of about the same amount of sass
+ * to compile, so each runtime of the pool can take one. An entry point weighs as much
+ * as the bytes of it and everything it imports, the heaviest are handed out first,
+ * each to the batch that's lightest so far. Ties go to the earlier batch and the
+ * stylesheets of a batch keep the order they were given in, so the same sources
+ * always give the same batches.
+ */
+public class EntryPointPartitioner {
+    private final DependencyGraph graph;
+
+    public EntryPointPartitioner(DependencyGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @param entryPoints relative to the sass directory
+     * @return at most the given number of batches, none of them empty
+     */
+    public List<List<String>> partition(final List<String> entryPoints, int batches) {
+        List<List<String>> partitions = new ArrayList<List<String>>();
+        int count = Math.max(1, Math.min(batches, entryPoints.size()));
+
+        if (count == 1) {
+            if (!entryPoints.isEmpty()) {
+                partitions.add(new ArrayList<String>(entryPoints));
+            }
+
+            return partitions;
+        }
+
+        final long[] weights = new long[entryPoints.size()];
+        List<Integer> heaviestFirst = new ArrayList<Integer>();
+
+        for (int i = 0; i < entryPoints.size(); i++) {
+            weights[i] = weightOf(entryPoints.get(i));
+            heaviestFirst.add(i);
+        }
+
+        Collections.sort(heaviestFirst, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return weights[a] != weights[b] ? (weights[a] > weights[b] ? -1 : 1) : a.compareTo(b);
+            }
+        });
+
+        long[] loads = new long[count];
+        List<List<Integer>> members = new ArrayList<List<Integer>>();
+
+        for (int i = 0; i < count; i++) {
+            members.add(new ArrayList<Integer>());
+        }
+
+        for (Integer entryPoint : heaviestFirst) {
+            int lightest = 0;
+
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+
+            loads[lightest] += weights[entryPoint];
+            members.get(lightest).add(entryPoint);
+        }
+
+        for (List<Integer> batch : members) {
+            Collections.sort(batch);
+            List<String> paths = new ArrayList<String>();
+
+            for (Integer entryPoint : batch) {
+                paths.add(entryPoints.get(entryPoint));
+            }
+
+            partitions.add(paths);
+        }
+
+        return partitions;
+    }
+
+    private long weightOf(String entryPoint) {
+        long weight = 1;
+
+        for (File file : graph.getTransitiveDependencies(new File(graph.getSassDirectory(), entryPoint))) {
+            weight += file.length();
+        }
+
+        return weight;
+    }
+}
@@ -0,0 +1,115 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cheap identity of a file's contents at a point in time. Modification time and size
+ * are always recorded, the content hash only when asked for.
+ */
+public class Fingerprint {
+    private final long lastModified;
+    private final long length;
+    private final String hash;
+
+    public Fingerprint(long lastModified, long length, String hash) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.hash = hash;
+    }
+
+    public static Fingerprint of(File file, boolean hashContents) throws IOException {
+        return new Fingerprint(file.lastModified(), file.length(), hashContents ? sha1(file) : null);
+    }
+
+    /**
+     * Reads back what {@link #toString()} wrote.
+     */
+    public static Fingerprint parse(String value) {
+        String[] parts = value.split(":", 3);
+        return new Fingerprint(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts.length > 2 ? parts[2] : null);
+    }
+
+    public static String sha1(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            input.close();
+        }
+    }
+
+    public static String sha1(byte[] bytes) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return hex.toString();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * When both sides carry a content hash that alone decides, so touching a file
+     * without changing it does not count as a change.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Fingerprint)) return false;
+
+        Fingerprint other = (Fingerprint) o;
+
+        if (hash != null && other.hash != null) {
+            return hash.equals(other.hash);
+        }
+
+        return lastModified == other.lastModified && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (length ^ (length >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return lastModified + ":" + length + (hash != null ? ":" + hash : "");
+    }
+}
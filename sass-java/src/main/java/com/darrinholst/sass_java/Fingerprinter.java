@@ -0,0 +1,121 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Copies every compiled stylesheet to a name that includes a hash of its contents and
+ * records the mapping in an {@link AssetManifest}. Copies from previous compiles that
+ * are no longer in the manifest are removed.
+ */
+public class Fingerprinter {
+    public static final int HASH_LENGTH = 8;
+    public static final Pattern FINGERPRINTED = Pattern.compile(".*-[0-9a-f]{" + HASH_LENGTH + "}\\.css$");
+
+    public AssetManifest fingerprint(File cssDirectory) throws IOException {
+        File manifestFile = new File(cssDirectory, AssetManifest.FILE_NAME);
+        AssetManifest previous = AssetManifest.read(manifestFile);
+        Map<String, String> entries = new TreeMap<String, String>();
+        fingerprint(cssDirectory, "", previous, entries);
+
+        AssetManifest manifest = new AssetManifest(entries);
+        removeStaleCopies(cssDirectory, "", previous, manifest);
+        manifest.write(manifestFile);
+
+        return manifest;
+    }
+
+    /**
+     * Fingerprints just one stylesheet, leaving the other entries of the manifest as
+     * they were.
+     *
+     * @param name relative to the css directory, e.g. admin/users.css
+     */
+    public AssetManifest fingerprintStylesheet(File cssDirectory, String name) throws IOException {
+        File manifestFile = new File(cssDirectory, AssetManifest.FILE_NAME);
+        Map<String, String> entries = new TreeMap<String, String>(AssetManifest.read(manifestFile).getEntries());
+        File file = new File(cssDirectory, name);
+        String previous = entries.remove(name);
+        int slash = name.lastIndexOf('/');
+
+        if (file.isFile()) {
+            entries.put(name, copy(file, name.substring(0, slash + 1)));
+        }
+
+        if (previous != null && !previous.equals(entries.get(name))) {
+            new File(cssDirectory, previous).delete();
+        }
+
+        AssetManifest manifest = new AssetManifest(entries);
+        manifest.write(manifestFile);
+
+        return manifest;
+    }
+
+    /**
+     * A copy made by a previous compile, either because the previous manifest says so or
+     * because it looks like one and the stylesheet it would have been copied from exists.
+     */
+    private static boolean isFingerprintedCopy(File file, String name, AssetManifest previous) {
+        String fileName = file.getName();
+
+        if (!FINGERPRINTED.matcher(fileName).matches()) {
+            return false;
+        }
+
+        String original = fileName.substring(0, fileName.length() - ".css".length() - HASH_LENGTH - 1) + ".css";
+        return previous.isFingerprinted(name) || new File(file.getParentFile(), original).exists();
+    }
+
+    private void fingerprint(File directory, String prefix, AssetManifest previous, Map<String, String> entries) throws IOException {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                fingerprint(file, prefix + file.getName() + "/", previous, entries);
+            } else if (file.getName().endsWith(".css") && !isFingerprintedCopy(file, prefix + file.getName(), previous)) {
+                entries.put(prefix + file.getName(), copy(file, prefix));
+            }
+        }
+    }
+
+    /**
+     * @return the name of the copy, with the given prefix
+     */
+    private String copy(File file, String prefix) throws IOException {
+        String name = file.getName();
+        String hash = Fingerprint.sha1(file).substring(0, HASH_LENGTH);
+        String fingerprinted = name.substring(0, name.length() - ".css".length()) + "-" + hash + ".css";
+        File copy = new File(file.getParentFile(), fingerprinted);
+
+        if (!copy.exists()) {
+            AtomicFiles.copy(file, copy);
+        }
+
+        return prefix + fingerprinted;
+    }
+
+    private void removeStaleCopies(File directory, String prefix, AssetManifest previous, AssetManifest manifest) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                removeStaleCopies(file, prefix + file.getName() + "/", previous, manifest);
+            } else if (!manifest.isFingerprinted(prefix + file.getName())
+                    && isFingerprintedCopy(file, prefix + file.getName(), previous)) {
+                file.delete();
+            }
+        }
+    }
+}
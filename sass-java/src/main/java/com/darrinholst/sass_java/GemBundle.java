@@ -0,0 +1,241 @@
+package com.darrinholst.sass_java;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The gems of sass-java-gems, unpacked to disk. Requiring compass from inside a jar
+ * means JRuby probes the jar for every require on every load path entry and reads
+ * hundreds of files through the class loader, which is most of the first compile.
+ * <p>
+ * The gems jar carries an index, written when it's built, of the require paths of
+ * the gems and the files in them. The files are unpacked once into a directory named
+ * after the digest of the index, so every JVM, and every version of the gems, finds
+ * its own copy, and the require paths are put on the load path directly.
+ * <p>
+ * As whatever is unpacked is run by every compile, the directories are created
+ * readable by their owner only, and a copy found on disk is only loaded from when it
+ * still is and has every file of the index at its indexed size. Otherwise it's
+ * unpacked again.
+ */
+public class GemBundle {
+    public static final String INDEX = "sass-java-gems.index";
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".sass-java/gems");
+
+    private static final String LOAD_PATH = "load_path ";
+    private static final String FILE = "file ";
+    private static final Set<PosixFilePermission> PRIVATE = PosixFilePermissions.fromString("rwx------");
+
+    private final ClassLoader classLoader;
+    private final String digest;
+    private final List<String> loadPaths = new ArrayList<String>();
+    private final List<String> files = new ArrayList<String>();
+    private final List<Long> sizes = new ArrayList<Long>();
+
+    private GemBundle(ClassLoader classLoader, byte[] index) throws IOException {
+        this.classLoader = classLoader;
+        this.digest = Fingerprint.sha1(index);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(index), "UTF-8"));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(LOAD_PATH)) {
+                loadPaths.add(line.substring(LOAD_PATH.length()));
+            } else if (line.startsWith(FILE)) {
+                int separator = line.indexOf(' ', FILE.length());
+                sizes.add(Long.parseLong(line.substring(FILE.length(), separator)));
+                files.add(line.substring(separator + 1));
+            }
+        }
+    }
+
+    /**
+     * @return null when the gems on the class path weren't indexed
+     */
+    public static GemBundle find(ClassLoader classLoader) throws IOException {
+        InputStream input = classLoader.getResourceAsStream(INDEX);
+
+        if (input == null) {
+            return null;
+        }
+
+        try {
+            return new GemBundle(classLoader, readFully(input));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Unpacks the gems into the given directory unless they already are, and returns
+     * the absolute require paths to load them from.
+     */
+    public List<String> unpack(File directory) throws IOException {
+        File target = new File(directory, digest);
+
+        if (target.isDirectory() && !isIntact(target)) {
+            discard(target);
+        }
+
+        if (!target.isDirectory()) {
+            createPrivateDirectory(directory);
+            File staging = new File(directory, "." + digest + "-" + random());
+
+            try {
+                createPrivateDirectory(staging);
+
+                for (String path : files) {
+                    copy(path, new File(staging, path));
+                }
+
+                Files.move(staging.toPath(), target.toPath());
+            } catch (FileAlreadyExistsException e) {
+                // unpacked by another JVM in the meantime
+            } catch (DirectoryNotEmptyException e) {
+                // unpacked by another JVM in the meantime
+            } finally {
+                delete(staging);
+            }
+        }
+
+        List<String> absolute = new ArrayList<String>();
+
+        for (String loadPath : loadPaths) {
+            absolute.add(new File(target, loadPath).getAbsolutePath());
+        }
+
+        return absolute;
+    }
+
+    /**
+     * Whether the copy is still private to this user and has every file of the index at
+     * its indexed size.
+     */
+    private boolean isIntact(File target) throws IOException {
+        if (isPosix()) {
+            Path path = target.toPath();
+            Set<PosixFilePermission> others = new HashSet<PosixFilePermission>(Files.getPosixFilePermissions(path));
+            others.removeAll(PRIVATE);
+
+            if (!others.isEmpty() || !Files.getOwner(path).getName().equals(System.getProperty("user.name"))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            File file = new File(target, files.get(i));
+
+            if (!file.isFile() || file.length() != sizes.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves the copy out of the way before removing it, so no other JVM loads from it
+     * while it's half removed.
+     */
+    private void discard(File target) throws IOException {
+        File discarded = new File(target.getParentFile(), "." + digest + "-" + random());
+
+        try {
+            Files.move(target.toPath(), discarded.toPath());
+        } catch (NoSuchFileException e) {
+            // discarded by another JVM in the meantime
+            return;
+        }
+
+        delete(discarded);
+    }
+
+    private static void createPrivateDirectory(File directory) throws IOException {
+        if (isPosix()) {
+            Files.createDirectories(directory.toPath(), PosixFilePermissions.asFileAttribute(PRIVATE));
+        } else {
+            directory.mkdirs();
+        }
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    private void copy(String path, File file) throws IOException {
+        InputStream input = classLoader.getResourceAsStream(path);
+
+        if (input == null) {
+            throw new IOException(path + " is in the gems index but not on the class path");
+        }
+
+        try {
+            file.getParentFile().mkdirs();
+            OutputStream output = new FileOutputStream(file);
+
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static String random() {
+        byte[] random = new byte[4];
+        new SecureRandom().nextBytes(random);
+        return Fingerprint.toHex(random);
+    }
+}
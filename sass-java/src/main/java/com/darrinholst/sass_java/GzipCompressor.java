@@ -0,0 +1,34 @@
+package com.darrinholst.sass_java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipCompressor implements Compressor {
+    public String getEncoding() {
+        return "gzip";
+    }
+
+    public String getExtension() {
+        return ".gz";
+    }
+
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(output) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = input.read(buffer)) != -1) {
+            gzip.write(buffer, 0, read);
+        }
+
+        gzip.finish();
+    }
+}
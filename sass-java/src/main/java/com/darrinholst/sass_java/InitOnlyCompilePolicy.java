@@ -0,0 +1,14 @@
+package com.darrinholst.sass_java;
+
+/**
+ * Compiles when the filter starts and never on a request, for production servers
+ * whose stylesheets don't change while they run.
+ */
+public class InitOnlyCompilePolicy implements CompilePolicy {
+    public boolean shouldCompile(long now) {
+        return false;
+    }
+
+    public void compiled(long now, boolean succeeded) {
+    }
+}
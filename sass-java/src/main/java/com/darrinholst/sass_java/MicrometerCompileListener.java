@@ -0,0 +1,44 @@
+package com.darrinholst.sass_java;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes compiles and request waits to Micrometer, for applications that already
+ * have it. Micrometer is an optional dependency; add micrometer-core to use it, e.g.
+ * with the {@code compileListeners} filter param, which reports to the global registry.
+ */
+public class MicrometerCompileListener implements CompileListener {
+    private final Timer compiles;
+    private final Timer failedCompiles;
+    private final DistributionSummary filesCompiled;
+    private final Timer requestWaits;
+
+    public MicrometerCompileListener() {
+        this(Metrics.globalRegistry);
+    }
+
+    public MicrometerCompileListener(MeterRegistry registry) {
+        compiles = Timer.builder("sass.compile").tag("outcome", "success").publishPercentileHistogram().register(registry);
+        failedCompiles = Timer.builder("sass.compile").tag("outcome", "failure").register(registry);
+        filesCompiled = DistributionSummary.builder("sass.compile.files").register(registry);
+        requestWaits = Timer.builder("sass.request.wait").publishPercentileHistogram().register(registry);
+    }
+
+    public void compileFinished(long nanos, int filesCompiled, Throwable error) {
+        if (error == null) {
+            compiles.record(nanos, TimeUnit.NANOSECONDS);
+            this.filesCompiled.record(filesCompiled);
+        } else {
+            failedCompiles.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void requestWaited(long nanos) {
+        requestWaits.record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,284 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Moves compiled output from a staging directory into the css directory. Every file
+ * is moved in atomically, and outputs of the previous compile that weren't produced
+ * again are only removed once all the new ones are in place, so readers see either
+ * the old or the new version of a stylesheet, never a missing or half written one.
+ * <p>
+ * The outputs of each publish are recorded in a directory next to the css directory,
+ * see {@link #stateDirectoryOf}, which is how the next publish knows what it may
+ * remove without touching anything else in there.
+ * <p>
+ * When generations are retained, copies of the outputs being replaced are kept in a
+ * directory next to the css directory, so a publish can be rolled back.
+ */
+public class OutputPublisher {
+    public static final String OUTPUTS_FILE = "outputs.properties";
+
+    // where earlier versions recorded the outputs, in the css directory itself
+    private static final String LEGACY_OUTPUTS_FILE = ".sass-java-outputs";
+
+    private final File cssDirectory;
+    private final int retainedGenerations;
+
+    public OutputPublisher(File cssDirectory) {
+        this(cssDirectory, 0);
+    }
+
+    public OutputPublisher(File cssDirectory, int retainedGenerations) {
+        this.cssDirectory = cssDirectory;
+        this.retainedGenerations = retainedGenerations;
+    }
+
+    /**
+     * Where sass-java keeps what it knows about the css directory, next to it rather
+     * than in it, so it isn't served along with the stylesheets.
+     */
+    public static File stateDirectoryOf(File cssDirectory) {
+        return new File(cssDirectory.getAbsoluteFile().getParentFile(), "." + cssDirectory.getName() + "-sass-java");
+    }
+
+    public boolean hasPublished() {
+        return outputsFile().isFile() || new File(cssDirectory, LEGACY_OUTPUTS_FILE).isFile();
+    }
+
+    /**
+     * A new staging directory next to the css directory, so it's on the same file system
+     * and moving out of it is atomic, holding copies of the current outputs so compiles
+     * that only write what changed still end up with a complete set.
+     */
+    public File stage() throws IOException {
+        File staging = stagingDirectory();
+        copy(cssDirectory, readOutputs(), staging);
+        return staging;
+    }
+
+    public void publish(File staging) throws IOException {
+        if (retainedGenerations > 0 && hasPublished()) {
+            retain(readOutputs());
+        }
+
+        replace(staging);
+        prune(retainedGenerations);
+    }
+
+    /**
+     * Publishes the most recently retained generation again, and forgets it, so rolling
+     * back repeatedly goes back one generation at a time.
+     *
+     * @return false when there is no generation left to roll back to
+     */
+    public boolean rollback() throws IOException {
+        List<File> generations = generations();
+
+        if (generations.isEmpty()) {
+            return false;
+        }
+
+        File generation = generations.get(generations.size() - 1);
+        File staging = stagingDirectory();
+
+        try {
+            Set<String> paths = new TreeSet<String>();
+            list(generation, "", paths);
+            copy(generation, paths, staging);
+            replace(staging);
+        } finally {
+            discard(staging);
+        }
+
+        discard(generation);
+        return true;
+    }
+
+    private void replace(File staging) throws IOException {
+        Set<String> previous = readOutputs();
+        Set<String> current = new TreeSet<String>();
+        list(staging, "", current);
+
+        for (String path : current) {
+            File target = new File(cssDirectory, path);
+            target.getParentFile().mkdirs();
+            AtomicFiles.move(new File(staging, path), target);
+        }
+
+        for (String path : previous) {
+            if (!current.contains(path)) {
+                new File(cssDirectory, path).delete();
+            }
+        }
+
+        writeOutputs(current);
+        discard(staging);
+    }
+
+    private void retain(Set<String> outputs) throws IOException {
+        List<File> generations = generations();
+        long number = generations.isEmpty() ? 1 : Long.parseLong(generations.get(generations.size() - 1).getName()) + 1;
+        copy(cssDirectory, outputs, new File(generationsDirectory(), String.valueOf(number)));
+    }
+
+    private void prune(int keep) {
+        List<File> generations = generations();
+
+        for (int i = 0; i < generations.size() - keep; i++) {
+            discard(generations.get(i));
+        }
+    }
+
+    /**
+     * Oldest first.
+     */
+    private List<File> generations() {
+        List<File> generations = new ArrayList<File>();
+        File[] files = generationsDirectory().listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && file.getName().matches("\\d+")) {
+                    generations.add(file);
+                }
+            }
+        }
+
+        Collections.sort(generations, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.valueOf(a.getName()).compareTo(Long.valueOf(b.getName()));
+            }
+        });
+
+        return generations;
+    }
+
+    private File generationsDirectory() {
+        return new File(cssDirectory.getAbsoluteFile().getParentFile(), "." + cssDirectory.getName() + "-generations");
+    }
+
+    private void copy(File from, Set<String> paths, File to) throws IOException {
+        for (String path : paths) {
+            File original = new File(from, path);
+
+            if (original.isFile()) {
+                File copy = new File(to, path);
+                copy.getParentFile().mkdirs();
+                Files.copy(original.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+
+        to.mkdirs();
+    }
+
+    private File stagingDirectory() {
+        byte[] random = new byte[4];
+        new SecureRandom().nextBytes(random);
+        return new File(cssDirectory.getAbsoluteFile().getParentFile(),
+                "." + cssDirectory.getName() + "-staging-" + Fingerprint.toHex(random));
+    }
+
+    public void discard(File staging) {
+        File[] files = staging.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                discard(file);
+            }
+        }
+
+        staging.delete();
+    }
+
+    private void list(File directory, String prefix, Set<String> paths) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                list(file, prefix + file.getName() + "/", paths);
+            } else {
+                paths.add(prefix + file.getName());
+            }
+        }
+    }
+
+    private File outputsFile() {
+        return new File(stateDirectoryOf(cssDirectory), OUTPUTS_FILE);
+    }
+
+    private Set<String> readOutputs() throws IOException {
+        File file = outputsFile().isFile() ? outputsFile() : new File(cssDirectory, LEGACY_OUTPUTS_FILE);
+        Set<String> outputs = new TreeSet<String>();
+
+        if (file.isFile()) {
+            InputStream input = new FileInputStream(file);
+            Properties properties = new Properties();
+
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            outputs.addAll(properties.stringPropertyNames());
+        }
+
+        return outputs;
+    }
+
+    private void writeOutputs(Set<String> outputs) throws IOException {
+        Properties properties = new Properties();
+
+        for (String path : outputs) {
+            properties.setProperty(path, "");
+        }
+
+        File file = outputsFile();
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            properties.store(output, "written by sass-java, outputs of the last compile");
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, file);
+        new File(cssDirectory, LEGACY_OUTPUTS_FILE).delete();
+    }
+
+    /**
+     * Usage: OutputPublisher rollback [css directory]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !args[0].equals("rollback")) {
+            System.err.println("usage: OutputPublisher rollback <css directory>");
+            System.exit(2);
+        }
+
+        if (!new OutputPublisher(new File(args[1])).rollback()) {
+            System.err.println("no earlier generation of " + args[1] + " to roll back to");
+            System.exit(1);
+        }
+    }
+}
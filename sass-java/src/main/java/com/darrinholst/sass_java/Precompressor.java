@@ -0,0 +1,84 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes a compressed variant next to every compiled stylesheet that is newer than its
+ * variant and removes variants whose stylesheet is gone.
+ */
+public class Precompressor {
+    private final List<Compressor> compressors;
+
+    public Precompressor(List<Compressor> compressors) {
+        this.compressors = compressors;
+    }
+
+    public void precompress(File cssDirectory) throws IOException {
+        File[] files = cssDirectory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                precompress(file);
+            } else if (file.getName().endsWith(".css")) {
+                precompressStylesheet(file);
+            } else {
+                removeOrphan(file);
+            }
+        }
+    }
+
+    public void precompressStylesheet(File css) throws IOException {
+        for (Compressor compressor : compressors) {
+            File variant = new File(css.getPath() + compressor.getExtension());
+
+            // a stylesheet rewritten within the file system's timestamp resolution
+            // has the same modification time as its old variant
+            if (!variant.exists() || variant.lastModified() <= css.lastModified()) {
+                compress(compressor, css, variant);
+            }
+        }
+    }
+
+    private void removeOrphan(File file) {
+        for (Compressor compressor : compressors) {
+            String name = file.getPath();
+
+            if (name.endsWith(".css" + compressor.getExtension())) {
+                File original = new File(name.substring(0, name.length() - compressor.getExtension().length()));
+
+                if (!original.exists()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void compress(Compressor compressor, File file, File variant) throws IOException {
+        File temporary = new File(variant.getPath() + ".tmp");
+        InputStream input = new FileInputStream(file);
+
+        try {
+            OutputStream output = new FileOutputStream(temporary);
+
+            try {
+                compressor.compress(input, output);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+
+        AtomicFiles.move(temporary, variant);
+    }
+}
@@ -0,0 +1,36 @@
+package com.darrinholst.sass_java;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Takes theme variables from request parameters of the same name, e.g.
+ * {@code /css/theme.css?brand=%23336699}. Only the variables it was given are read,
+ * anything else in the query string is ignored so it can't add to the variants that
+ * get compiled and cached.
+ */
+public class RequestParameterThemeResolver implements ThemeResolver {
+    private final List<String> variables;
+
+    public RequestParameterThemeResolver(Collection<String> variables) {
+        this.variables = new ArrayList<String>(variables);
+    }
+
+    public Map<String, String> resolve(HttpServletRequest request) {
+        Map<String, String> theme = new TreeMap<String, String>();
+
+        for (String variable : variables) {
+            String value = request.getParameter(variable);
+
+            if (value != null && value.trim().length() > 0) {
+                theme.put(variable, value.trim());
+            }
+        }
+
+        return theme;
+    }
+}
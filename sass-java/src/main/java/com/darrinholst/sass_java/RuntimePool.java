@@ -0,0 +1,142 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed size pool of JRuby containers that have already run the initialization
+ * script, so compass only has to be loaded once per runtime instead of once per compile.
+ * <p>
+ * Every container of the pool is a ruby runtime with compass loaded, a few tens of
+ * megabytes of heap each. A {@link LocalContextScope#THREADSAFE} container goes further
+ * and keeps a runtime for every thread that uses it, so with it the memory grows with
+ * the number of threads that compile, not with the size of the pool.
+ * {@link LocalContextScope#SINGLETON} containers all share the one runtime of the JVM,
+ * so a pool of them can only have one.
+ */
+public class RuntimePool {
+    private final int size;
+    private final LocalContextScope scope;
+    private final String initializationScript;
+    private final List<String> loadPaths;
+    private final BlockingQueue<PooledRuntime> available;
+    private final List<PooledRuntime> all = new ArrayList<PooledRuntime>();
+
+    public RuntimePool(int size, LocalContextScope scope, String initializationScript) {
+        this(size, scope, initializationScript, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param loadPaths put on the load path of every runtime before the initialization script runs
+     */
+    public RuntimePool(int size, LocalContextScope scope, String initializationScript, List<String> loadPaths) {
+        if (size < 1) {
+            throw new IllegalArgumentException("runtime pool size must be at least 1 but was " + size);
+        }
+
+        if (size > 1 && scope == LocalContextScope.SINGLETON) {
+            throw new IllegalArgumentException("runtimes with the SINGLETON scope are all the same runtime, so the pool size can't be more than 1 but was " + size);
+        }
+
+        this.size = size;
+        this.scope = scope;
+        this.initializationScript = initializationScript;
+        this.loadPaths = loadPaths;
+        this.available = new ArrayBlockingQueue<PooledRuntime>(size);
+    }
+
+    public synchronized void warmUp() {
+        while (all.size() < size) {
+            ScriptingContainer container = new ScriptingContainer(scope);
+
+            if (!loadPaths.isEmpty()) {
+                container.setLoadPaths(loadPaths);
+            }
+
+            PooledRuntime runtime = new PooledRuntime(container);
+            runtime.ensureInitialized();
+            all.add(runtime);
+            available.add(runtime);
+        }
+    }
+
+    public PooledRuntime borrow() {
+        warmUp();
+
+        try {
+            PooledRuntime runtime = available.take();
+            runtime.ensureInitialized();
+            return runtime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a sass runtime", e);
+        }
+    }
+
+    /**
+     * Runtimes borrowed before the pool was terminated are terminated too, they're
+     * dropped instead of put back.
+     */
+    public synchronized void release(PooledRuntime runtime) {
+        if (runtime != null && all.contains(runtime)) {
+            available.offer(runtime);
+        }
+    }
+
+    public synchronized void terminate() {
+        for (PooledRuntime runtime : all) {
+            runtime.getContainer().terminate();
+        }
+
+        all.clear();
+        available.clear();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public LocalContextScope getScope() {
+        return scope;
+    }
+
+    public class PooledRuntime {
+        private final ScriptingContainer container;
+        private boolean initialized;
+        private final ThreadLocal<Boolean> initializedOnThread = new ThreadLocal<Boolean>();
+
+        private PooledRuntime(ScriptingContainer container) {
+            this.container = container;
+        }
+
+        public ScriptingContainer getContainer() {
+            return container;
+        }
+
+        public Object run(String script) {
+            return container.runScriptlet(script);
+        }
+
+        /**
+         * A threadsafe container hands each thread its own ruby runtime, so the
+         * initialization script has to run once per thread rather than once per container.
+         */
+        private void ensureInitialized() {
+            if (scope == LocalContextScope.THREADSAFE) {
+                if (initializedOnThread.get() == null) {
+                    container.runScriptlet(initializationScript);
+                    initializedOnThread.set(Boolean.TRUE);
+                }
+            } else if (!initialized) {
+                container.runScriptlet(initializationScript);
+                initialized = true;
+            }
+        }
+    }
+}
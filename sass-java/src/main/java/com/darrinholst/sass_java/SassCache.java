@@ -0,0 +1,110 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The directory sass keeps parsed stylesheets in between compiles. Sass checks every
+ * entry against a digest of the source it was parsed from and writes entries by
+ * renaming a temporary file, so the directory can outlive the JVM and be shared by
+ * any number of processes, but it never removes anything from it.
+ * <p>
+ * Trimming removes the entries written longest ago until the directory is back under
+ * its limit, with some room to spare so it doesn't have to be trimmed again on the
+ * next compile. Entries written in the last minute are left alone, as the temporary
+ * file of one being written may be among them, and so are directories, which sass
+ * expects to still be there once it has created them.
+ */
+public class SassCache {
+    public static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+    private static final long RECENT = 60 * 1000;
+    private static final double LOW_WATER_MARK = 0.8;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes 0 to never trim the directory
+     */
+    public SassCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of bytes removed
+     */
+    public long trim() throws IOException {
+        if (maxBytes <= 0 || !directory.isDirectory()) {
+            return 0;
+        }
+
+        final List<Path> entries = new ArrayList<Path>();
+        final List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    entries.add(file);
+                    attributes.add(attrs);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        long total = 0;
+        List<Integer> oldestFirst = new ArrayList<Integer>();
+
+        for (int i = 0; i < entries.size(); i++) {
+            total += attributes.get(i).size();
+            oldestFirst.add(i);
+        }
+
+        if (total <= maxBytes) {
+            return 0;
+        }
+
+        Collections.sort(oldestFirst, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+
+        long target = (long) (maxBytes * LOW_WATER_MARK);
+        long recent = Clock.now().getTime() - RECENT;
+        long removed = 0;
+
+        for (Integer entry : oldestFirst) {
+            if (total - removed <= target || attributes.get(entry).lastModifiedTime().toMillis() > recent) {
+                break;
+            }
+
+            if (Files.deleteIfExists(entries.get(entry))) {
+                removed += attributes.get(entry).size();
+            }
+        }
+
+        return removed;
+    }
+}
@@ -1,69 +1,610 @@
 package com.darrinholst.sass_java;
 
+import org.jruby.embed.LocalContextScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.lang.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SassCompilingFilter implements Filter {
     private static final Logger LOG = LoggerFactory.getLogger(SassCompilingFilter.class);
-    private static final int DWELL = 1000;
     protected static final String RETHROW_EXCEPTIONS_PARAM = "rethrowExceptions";
     protected static final String ONLY_RUN_KEY_PARAM = "onlyRunWhenKey";
     protected static final String ONLY_RUN_VALUE_PARAM = "onlyRunWhenValue";
     protected static final String CONFIG_LOCATION_PARAM = "configLocation";
+    protected static final String ENGINE_PARAM = "engine";
+    protected static final String RUNTIME_POOL_SIZE_PARAM = "runtimePoolSize";
+    protected static final String LOCAL_CONTEXT_SCOPE_PARAM = "localContextScope";
+    protected static final String PARALLELISM_PARAM = "parallelism";
+    protected static final String UNPACK_GEMS_PARAM = "unpackGems";
+    protected static final String UNPACK_GEMS_LOCATION_PARAM = "unpackGemsLocation";
+    protected static final String SASS_CACHE_LOCATION_PARAM = "sassCacheLocation";
+    protected static final String SASS_CACHE_MAX_BYTES_PARAM = "sassCacheMaxBytes";
+    protected static final String INCREMENTAL_PARAM = "incremental";
+    protected static final String FINGERPRINT_CONTENTS_PARAM = "fingerprintContents";
+    protected static final String WATCH_PARAM = "watch";
+    protected static final String WATCH_DEBOUNCE_PARAM = "watchDebounce";
+    protected static final int DEFAULT_WATCH_DEBOUNCE = 100;
+    protected static final String SERVE_STALE_PARAM = "serveStale";
+    protected static final String ASYNC_WAIT_PARAM = "asyncWait";
+    protected static final String ASYNC_TIMEOUT_PARAM = "asyncTimeout";
+    protected static final int DEFAULT_ASYNC_TIMEOUT = 30000;
+    protected static final String RESUMED_ATTRIBUTE = SassCompilingFilter.class.getName() + ".resumed";
+    protected static final String CACHE_STYLESHEETS_PARAM = "cacheStylesheets";
+    protected static final String STYLESHEET_CACHE_MAX_BYTES_PARAM = "stylesheetCacheMaxBytes";
+    protected static final int DEFAULT_STYLESHEET_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    protected static final String PRECOMPRESS_PARAM = "precompress";
+    protected static final String BUNDLES_PARAM = "bundles";
+    protected static final String COMPRESSORS_PARAM = "compressors";
+    protected static final String FINGERPRINT_PARAM = "fingerprint";
+    protected static final String CSS_LOCATION_PARAM = "cssLocation";
+    protected static final String COMPILE_LISTENERS_PARAM = "compileListeners";
+    protected static final String JMX_PARAM = "jmx";
+    protected static final String LAZY_PARAM = "lazy";
+    protected static final String SOURCE_MAPS_PARAM = "sourceMaps";
+    protected static final String SOURCE_MAPS_INLINE_PARAM = "sourceMapsInline";
+    protected static final String SOURCE_MAPS_EMBED_SOURCES_PARAM = "sourceMapsEmbedSources";
+    protected static final String CLUSTER_PARAM = "cluster";
+    protected static final String CLUSTER_LOCK_LOCATION_PARAM = "clusterLockLocation";
+    protected static final String ATOMIC_PUBLISH_PARAM = "atomicPublish";
+    protected static final String RETAINED_GENERATIONS_PARAM = "retainedGenerations";
+    protected static final String COMPILE_POLICY_PARAM = "compilePolicy";
+    protected static final String COMPILE_DWELL_PARAM = "compileDwell";
+    protected static final String COMPILE_MAX_BACKOFF_PARAM = "compileMaxBackoff";
+    protected static final String COMPILE_ONCE_PARAM = "compileOnce";
+    protected static final String QUIET_HOURS_PARAM = "quietHours";
+    protected static final String THEME_STYLESHEET_PARAM = "themeStylesheet";
+    protected static final String THEME_PATH_PARAM = "themePath";
+    protected static final String THEME_VARIABLES_PARAM = "themeVariables";
+    protected static final String THEME_RESOLVER_PARAM = "themeResolver";
+    protected static final String THEME_STYLE_PARAM = "themeStyle";
+    protected static final String THEME_CACHE_MAX_BYTES_PARAM = "themeCacheMaxBytes";
+    protected static final String THEME_SPILL_LOCATION_PARAM = "themeSpillLocation";
+    protected static final String THEME_SPILL_MAX_BYTES_PARAM = "themeSpillMaxBytes";
+    protected static final String THEME_MAX_VARIANTS_PARAM = "themeMaxVariants";
+    protected static final String THEME_MAX_COMPILES_PARAM = "themeMaxCompiles";
+    protected static final int DEFAULT_THEME_CACHE_MAX_BYTES = 10 * 1024 * 1024;
     protected static final String DEFAULT_CONFIG_LOCATION = "WEB-INF" + File.separator + "sass" + File.separator + "config.rb";
 
-    private long lastRun;
     private String onlyRunWhenKey;
     private String onlyRunWhenValue;
     private boolean rethrowExceptions;
+    private boolean serveStale;
+    private boolean asyncWait;
+    private boolean lazy;
+    private long asyncTimeout;
     private Compiler compiler = new Compiler();
+    private CompilePolicy compilePolicy;
     private AtomicBoolean compiling = new AtomicBoolean(false);
+    private AtomicLong compiledGeneration = new AtomicLong();
+    private final Object compileMonitor = new Object();
+    private final Map<AsyncContext, Long> parked = new ConcurrentHashMap<AsyncContext, Long>();
+    private SassWatcher watcher;
+    private ClusterCoordinator clusterCoordinator;
+    private long clusterGeneration = -1;
+    private StylesheetServer stylesheetServer;
+    private boolean fingerprint;
+    private File rootPath;
+    private File cssDirectory;
+    private ServletContext servletContext;
+    private List<CompileListener> compileListeners;
+    private ObjectName metricsName;
+    private ThemeCompiler themeCompiler;
+    private ThemeResolver themeResolver;
+    private String themePath;
 
     public void init(FilterConfig filterConfig) throws ServletException {
         Config config = new Config(filterConfig);
         onlyRunWhenKey = config.getString(ONLY_RUN_KEY_PARAM);
         onlyRunWhenValue = config.getString(ONLY_RUN_VALUE_PARAM);
         rethrowExceptions = config.getBoolean(RETHROW_EXCEPTIONS_PARAM, false);
+        serveStale = config.getBoolean(SERVE_STALE_PARAM, false);
+        asyncWait = config.getBoolean(ASYNC_WAIT_PARAM, false) && config.getServletMajorVersion() >= 3;
+        asyncTimeout = config.getInt(ASYNC_TIMEOUT_PARAM, DEFAULT_ASYNC_TIMEOUT);
+        lazy = config.getBoolean(LAZY_PARAM, false);
 
-        compiler.setConfigLocation(new File(
+        if (lazy && (config.getBoolean(ATOMIC_PUBLISH_PARAM, false) || config.getBoolean(CLUSTER_PARAM, false))) {
+            // stylesheets compiled on request are written straight to the css directory,
+            // by every node that gets a request for one
+            throw new ServletException(LAZY_PARAM + " can't be combined with " + ATOMIC_PUBLISH_PARAM + " or " + CLUSTER_PARAM);
+        }
+
+        if (lazy && (config.getBoolean(COMPILE_ONCE_PARAM, false) || config.getString(COMPILE_POLICY_PARAM) != null
+                || config.getString(COMPILE_DWELL_PARAM) != null || config.getString(COMPILE_MAX_BACKOFF_PARAM) != null
+                || config.getString(QUIET_HOURS_PARAM) != null)) {
+            // whether a stylesheet is compiled on request only depends on whether its
+            // sources changed, the compile policy would be silently ignored
+            throw new ServletException(LAZY_PARAM + " can't be combined with " + COMPILE_ONCE_PARAM + ", " + COMPILE_POLICY_PARAM
+                    + ", " + COMPILE_DWELL_PARAM + ", " + COMPILE_MAX_BACKOFF_PARAM + " or " + QUIET_HOURS_PARAM);
+        }
+        compilePolicy = createCompilePolicy(config);
+
+        boolean cacheStylesheets = config.getBoolean(CACHE_STYLESHEETS_PARAM, false);
+        List<Compressor> compressors = config.getBoolean(PRECOMPRESS_PARAM, false)
+                ? config.getInstances(COMPRESSORS_PARAM, Compressor.class, GzipCompressor.class.getName())
+                : Collections.<Compressor>emptyList();
+
+        fingerprint = config.getBoolean(FINGERPRINT_PARAM, false);
+        servletContext = filterConfig.getServletContext();
+        rootPath = config.getRootPath();
+
+        if (config.getString(CSS_LOCATION_PARAM) != null) {
+            cssDirectory = new File(rootPath, config.getString(CSS_LOCATION_PARAM));
+        }
+
+        if (cacheStylesheets || fingerprint || !compressors.isEmpty()) {
+            stylesheetServer = new StylesheetServer(filterConfig.getServletContext(), new StylesheetCache(
+                    cacheStylesheets ? config.getInt(STYLESHEET_CACHE_MAX_BYTES_PARAM, DEFAULT_STYLESHEET_CACHE_MAX_BYTES) : 0
+            ), compressors);
+        }
+
+        File configLocation = new File(
                 config.getRootPath(),
                 config.getString(CONFIG_LOCATION_PARAM, DEFAULT_CONFIG_LOCATION)
+        );
+        compiler.setEngine(config.getString(ENGINE_PARAM, Compiler.DEFAULT_ENGINE).trim());
+        compiler.setConfigLocation(configLocation);
+        compiler.setRuntimePoolSize(config.getInt(RUNTIME_POOL_SIZE_PARAM, Compiler.DEFAULT_RUNTIME_POOL_SIZE));
+        compiler.setParallelism(config.getInt(PARALLELISM_PARAM, 0));
+        compiler.setLocalContextScope(LocalContextScope.valueOf(config.getString(
+                LOCAL_CONTEXT_SCOPE_PARAM,
+                Compiler.DEFAULT_LOCAL_CONTEXT_SCOPE.name()
+        ).trim().toUpperCase()));
+        if (config.getBoolean(UNPACK_GEMS_PARAM, false)) {
+            String location = config.getString(UNPACK_GEMS_LOCATION_PARAM);
+            compiler.setGemsDirectory(location != null ? new File(location) : GemBundle.DEFAULT_DIRECTORY);
+        }
+
+        if (config.getString(SASS_CACHE_LOCATION_PARAM) != null) {
+            File cacheLocation = new File(config.getString(SASS_CACHE_LOCATION_PARAM).trim());
+            compiler.setCache(
+                    cacheLocation.isAbsolute() ? cacheLocation : new File(rootPath, cacheLocation.getPath()),
+                    config.getLong(SASS_CACHE_MAX_BYTES_PARAM, SassCache.DEFAULT_MAX_BYTES)
+            );
+        }
+
+        compiler.setIncremental(config.getBoolean(INCREMENTAL_PARAM, false));
+        compiler.setFingerprintContents(config.getBoolean(FINGERPRINT_CONTENTS_PARAM, false));
+        compiler.setCompressors(compressors);
+        compiler.setFingerprint(fingerprint);
+        compiler.setBundles(Bundler.parse(config.getString(BUNDLES_PARAM)));
+        compiler.setStaged(config.getBoolean(ATOMIC_PUBLISH_PARAM, false));
+        compiler.setRetainedGenerations(config.getInt(RETAINED_GENERATIONS_PARAM, 0));
+        compiler.setSourceMapsInline(config.getBoolean(SOURCE_MAPS_INLINE_PARAM, false));
+        compiler.setSourceMapsEmbedSources(config.getBoolean(SOURCE_MAPS_EMBED_SOURCES_PARAM, false));
+
+        if (config.getString(SOURCE_MAPS_PARAM) != null) {
+            compiler.setSourceMaps(config.getBoolean(SOURCE_MAPS_PARAM, false));
+        }
+
+        if (config.getBoolean(CLUSTER_PARAM, false)) {
+            String lockLocation = config.getString(CLUSTER_LOCK_LOCATION_PARAM);
+            clusterCoordinator = new ClusterCoordinator(
+                    lockLocation != null ? new File(rootPath, lockLocation) : configLocation.getAbsoluteFile().getParentFile(),
+                    configLocation
+            );
+            compiler.setStaged(true);
+        }
+
+        compileListeners = config.getInstances(COMPILE_LISTENERS_PARAM, CompileListener.class, "");
+        if (config.getBoolean(JMX_PARAM, false)) {
+            compileListeners.add(registerMetrics(filterConfig));
+        }
+        compiler.setCompileListeners(compileListeners);
+
+        if (config.getString(THEME_STYLESHEET_PARAM) != null) {
+            configureTheme(config);
+        }
+
+        if (environmentAllowsRunning() && !lazy) {
+            compile();
+
+            if (config.getBoolean(WATCH_PARAM, false)) {
+                startWatching(configLocation, config.getInt(WATCH_DEBOUNCE_PARAM, DEFAULT_WATCH_DEBOUNCE));
+            }
+        }
+
+        if (fingerprint) {
+            publishManifest();
+        }
+
+    }
+
+    /**
+     * A custom policy, otherwise compiling only at init, otherwise compiling at most
+     * once per dwell with backoff after failures.
+     */
+    private CompilePolicy createCompilePolicy(Config config) {
+        List<CompilePolicy> policies = config.getInstances(COMPILE_POLICY_PARAM, CompilePolicy.class, "");
+
+        if (!policies.isEmpty()) {
+            return policies.get(0);
+        }
+
+        if (config.getBoolean(COMPILE_ONCE_PARAM, false)) {
+            return new InitOnlyCompilePolicy();
+        }
+
+        DwellCompilePolicy policy = new DwellCompilePolicy(
+                config.getInt(COMPILE_DWELL_PARAM, (int) DwellCompilePolicy.DEFAULT_DWELL),
+                config.getInt(COMPILE_MAX_BACKOFF_PARAM, (int) DwellCompilePolicy.DEFAULT_MAX_BACKOFF)
+        );
+        policy.setQuietHours(config.getString(QUIET_HOURS_PARAM));
+        return policy;
+    }
+
+    /**
+     * One stylesheet in the sass directory can be requested with different values for
+     * its variables, each variant is compiled in memory the first time it's requested.
+     */
+    private void configureTheme(Config config) {
+        String stylesheet = config.getString(THEME_STYLESHEET_PARAM).trim();
+        String spillLocation = config.getString(THEME_SPILL_LOCATION_PARAM);
+        String style = config.getString(THEME_STYLE_PARAM);
+
+        themeCompiler = new ThemeCompiler(compiler, new File(compiler.getSassDirectory(), stylesheet), new ThemeCache(
+                config.getInt(THEME_CACHE_MAX_BYTES_PARAM, DEFAULT_THEME_CACHE_MAX_BYTES),
+                spillLocation != null ? new File(rootPath, spillLocation) : null,
+                config.getLong(THEME_SPILL_MAX_BYTES_PARAM, ThemeCache.DEFAULT_SPILL_MAX_BYTES)
         ));
+        themeCompiler.setMaxVariants(config.getInt(THEME_MAX_VARIANTS_PARAM, ThemeCompiler.DEFAULT_MAX_VARIANTS));
+        themeCompiler.setMaxConcurrentCompiles(config.getInt(THEME_MAX_COMPILES_PARAM, ThemeCompiler.DEFAULT_MAX_CONCURRENT_COMPILES));
 
-        if (environmentAllowsRunning()) compiler.compile();
+        if (style != null) {
+            themeCompiler.setStyle(SassOptions.Style.valueOf(style.trim().toUpperCase()));
+        }
+
+        List<ThemeResolver> resolvers = config.getInstances(THEME_RESOLVER_PARAM, ThemeResolver.class, "");
+        themeResolver = resolvers.isEmpty()
+                ? new RequestParameterThemeResolver(Arrays.asList(config.getString(THEME_VARIABLES_PARAM, "").trim().split("\\s*,\\s*")))
+                : resolvers.get(0);
 
+        String name = new File(stylesheet).getName().replaceFirst("\\.s[ac]ss$", "");
+        themePath = config.getString(THEME_PATH_PARAM, "/" + config.getString(CSS_LOCATION_PARAM, "css") + "/" + name + ".css").trim();
+    }
+
+    private CompileMetrics registerMetrics(FilterConfig filterConfig) throws ServletException {
+        CompileMetrics metrics = new CompileMetrics();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            metricsName = new ObjectName("com.darrinholst.sass_java:type=CompileMetrics,name="
+                    + ObjectName.quote(servletContext.getContextPath() + "/" + filterConfig.getFilterName()));
+
+            if (server.isRegistered(metricsName)) {
+                server.unregisterMBean(metricsName);
+            }
+
+            server.registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            throw new ServletException("unable to register sass compile metrics", e);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Watches config.rb, the sass directory and the import paths of config.rb, which
+     * partials outside the sass directory are imported from.
+     */
+    private void startWatching(File configLocation, int debounce) throws ServletException {
+        List<File> directories = new ArrayList<File>(Arrays.asList(configLocation.getAbsoluteFile().getParentFile(), compiler.getSassDirectory()));
+
+        for (File importPath : compiler.getImportPaths()) {
+            if (importPath.isDirectory()) {
+                directories.add(importPath);
+            }
+        }
+
+        watcher = new SassWatcher(
+                directories,
+                debounce,
+                new Runnable() {
+                    public void run() {
+                        compileChanges();
+                    }
+                }
+        );
+
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            throw new ServletException("unable to watch sass sources", e);
+        }
+    }
+
+    /**
+     * Makes the current fingerprinted names available to {@link AssetManifest#url}.
+     */
+    private void publishManifest() {
+        if (cssDirectory == null) {
+            cssDirectory = compiler.getCssDirectory();
+        }
+
+        try {
+            AssetManifest manifest = AssetManifest.read(new File(cssDirectory, AssetManifest.FILE_NAME));
+            manifest.setUrlPrefix(urlPathOf(cssDirectory));
+            servletContext.setAttribute(AssetManifest.ATTRIBUTE, manifest);
+        } catch (IOException e) {
+            LOG.warn("unable to read the stylesheet manifest", e);
+        }
+    }
+
+    private String urlPathOf(File directory) {
+        String root = rootPath.getAbsolutePath();
+        String path = directory.getAbsolutePath();
+
+        if (path.startsWith(root)) {
+            String relative = path.substring(root.length()).replace(File.separatorChar, '/');
+            return relative.startsWith("/") ? relative : "/" + relative;
+        }
+
+        return "/";
     }
 
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
-        if (shouldRun()) {
-            run();
+        if (lazy) {
+            if (servletRequest instanceof HttpServletRequest && isStylesheetRequest(servletRequest) && environmentAllowsRunning()) {
+                compileRequestedStylesheet((HttpServletRequest) servletRequest);
+            }
+        } else if (!serveStale || isStylesheetRequest(servletRequest)) {
+            if (watcher == null && shouldRun()) {
+                run();
+            }
+
+            if (canPark(servletRequest)) {
+                park(servletRequest, servletResponse);
+                return;
+            }
+
+            long started = System.nanoTime();
+
+            if (waitForCompile()) {
+                requestWaited(System.nanoTime() - started);
+            }
         }
 
-        while (compiling.get()) waitABit();
+        if (serveTheme(servletRequest, servletResponse) || serveStylesheet(servletRequest, servletResponse)) {
+            return;
+        }
 
         filterChain.doFilter(servletRequest, servletResponse);
     }
 
-    private void waitABit() {
+    /**
+     * In lazy mode nothing is compiled up front, each stylesheet is compiled the first
+     * time it's requested and again whenever it's requested after its sources changed.
+     */
+    private void compileRequestedStylesheet(HttpServletRequest request) {
+        String realPath = servletContext.getRealPath(StylesheetServer.pathOf(request));
+
+        if (realPath == null) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        boolean compiled = false;
+
+        try {
+            compiled = compiler.compileStylesheet(new File(realPath));
+        } catch (Exception e) {
+            LOG.warn("exception thrown while compiling sass for " + realPath, e);
+
+            if (rethrowExceptions) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (compiled) {
+            requestWaited(System.nanoTime() - started);
+
+            if (fingerprint) {
+                publishManifest();
+            }
+
+            if (stylesheetServer != null) {
+                stylesheetServer.invalidate();
+            }
+
+            if (themeCompiler != null) {
+                themeCompiler.invalidate();
+            }
+        }
+    }
+
+    private boolean serveTheme(ServletRequest servletRequest, ServletResponse servletResponse) throws IOException {
+        if (themeCompiler == null
+                || !(servletRequest instanceof HttpServletRequest)
+                || !(servletResponse instanceof HttpServletResponse)
+                || !themePath.equals(StylesheetServer.pathOf((HttpServletRequest) servletRequest))) {
+            return false;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        StylesheetCache.Entry entry;
+
         try {
-            Thread.sleep(100L);
-        } catch (InterruptedException e) {
+            entry = themeCompiler.get(themeResolver.resolve(request));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return true;
+        } catch (RejectedExecutionException e) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return true;
+        } catch (Exception e) {
+            LOG.warn("exception thrown while compiling the theme " + themeCompiler.getStylesheet(), e);
+
+            if (rethrowExceptions) {
+                throw new RuntimeException(e);
+            }
 
+            return false;
+        }
+
+        StylesheetServer.write(entry, request, response);
+        return true;
+    }
+
+    private boolean serveStylesheet(ServletRequest servletRequest, ServletResponse servletResponse) throws IOException {
+        return stylesheetServer != null
+                && servletRequest instanceof HttpServletRequest
+                && servletResponse instanceof HttpServletResponse
+                && stylesheetServer.serve((HttpServletRequest) servletRequest, (HttpServletResponse) servletResponse);
+    }
+
+    /**
+     * A request is only parked once. When it comes back through the filter after being
+     * resumed, whether by the compile finishing or by timing out, it falls back to
+     * waiting synchronously.
+     */
+    private boolean canPark(ServletRequest servletRequest) {
+        return asyncWait
+                && compileInProgress()
+                && servletRequest.isAsyncSupported()
+                && servletRequest.getAttribute(RESUMED_ATTRIBUTE) == null;
+    }
+
+    private void park(ServletRequest servletRequest, ServletResponse servletResponse) {
+        servletRequest.setAttribute(RESUMED_ATTRIBUTE, Boolean.TRUE);
+
+        final AsyncContext context = servletRequest.startAsync(servletRequest, servletResponse);
+        context.setTimeout(asyncTimeout);
+        context.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) {
+                resume(context);
+            }
+
+            public void onComplete(AsyncEvent event) {
+                parked.remove(context);
+            }
+
+            public void onError(AsyncEvent event) {
+                parked.remove(context);
+            }
+
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        parked.put(context, System.nanoTime());
+
+        if (!compileInProgress()) {
+            resume(context);
+        }
+    }
+
+    private void resume(AsyncContext context) {
+        Long parkedAt = parked.remove(context);
+
+        if (parkedAt != null) {
+            requestWaited(System.nanoTime() - parkedAt);
+            context.dispatch();
+        }
+    }
+
+    private void resumeParked() {
+        for (AsyncContext context : parked.keySet()) {
+            resume(context);
+        }
+    }
+
+    private void requestWaited(long nanos) {
+        for (CompileListener listener : compileListeners) {
+            try {
+                listener.requestWaited(nanos);
+            } catch (RuntimeException e) {
+                LOG.warn("exception thrown by compile listener " + listener, e);
+            }
+        }
+    }
+
+    /**
+     * Anything that isn't plain http is treated as a stylesheet so it keeps waiting
+     * for fresh output.
+     */
+    private boolean isStylesheetRequest(ServletRequest servletRequest) {
+        if (servletRequest instanceof HttpServletRequest) {
+            String uri = ((HttpServletRequest) servletRequest).getRequestURI();
+            return uri != null && (uri.endsWith(".css") || uri.endsWith(".css.map"));
+        }
+
+        return true;
+    }
+
+    private boolean compileInProgress() {
+        return compiling.get() || (watcher != null && compiledGeneration.get() < watcher.getGeneration());
+    }
+
+    /**
+     * Returns whether there was anything to wait for.
+     */
+    private boolean waitForCompile() {
+        boolean waited = false;
+
+        synchronized (compileMonitor) {
+            while (compileInProgress()) {
+                waited = true;
+
+                try {
+                    compileMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        return waited;
+    }
+
+    private void compileFinished() {
+        synchronized (compileMonitor) {
+            compileMonitor.notifyAll();
+        }
+
+        if (!compileInProgress()) {
+            resumeParked();
+        }
+    }
+
+    private void compileChanges() {
+        long generation = watcher.getGeneration();
+
+        try {
+            run();
+        } finally {
+            compiledGeneration.set(generation);
+            compileFinished();
         }
     }
 
     private void run() {
         LOG.debug("compiling sass");
+        boolean succeeded = false;
+        boolean changed = true;
 
         try {
             compiling.set(true);
-            compiler.compile();
+            changed = compile();
+            succeeded = true;
         } catch (Exception e) {
             LOG.warn("exception thrown while compiling sass", e);
 
@@ -71,12 +612,46 @@ public class SassCompilingFilter implements Filter {
                 throw new RuntimeException(e);
             }
         } finally {
+            if (fingerprint) {
+                publishManifest();
+            }
+
+            if (changed && stylesheetServer != null) {
+                stylesheetServer.invalidate();
+            }
+
+            if (changed && themeCompiler != null) {
+                themeCompiler.invalidate();
+            }
+
+            compilePolicy.compiled(Clock.now().getTime(), succeeded);
             compiling.set(false);
+            compileFinished();
         }
     }
 
+    /**
+     * In cluster mode only one node compiles each change, the others wait for it to
+     * finish and then serve what it published. Either way the outputs changed when the
+     * generation did.
+     *
+     * @return whether the outputs changed
+     */
+    private boolean compile() {
+        if (clusterCoordinator != null) {
+            clusterCoordinator.compile(compiler);
+            long generation = clusterCoordinator.getGeneration();
+            boolean changed = generation != clusterGeneration;
+            clusterGeneration = generation;
+            return changed;
+        }
+
+        compiler.compile();
+        return compiler.hasChangedOutputs();
+    }
+
     private boolean shouldRun() {
-        return !compiling.get() && environmentAllowsRunning() && timeToRun();
+        return !compiling.get() && environmentAllowsRunning() && compilePolicy.shouldCompile(Clock.now().getTime());
     }
 
     private boolean environmentAllowsRunning() {
@@ -87,18 +662,20 @@ public class SassCompilingFilter implements Filter {
         return true;
     }
 
-    private synchronized boolean timeToRun() {
-        long now = Clock.now().getTime();
-
-        if (now - lastRun >= DWELL) {
-            lastRun = Clock.now().getTime();
-            return true;
-        } else {
-            return false;
+    public void destroy() {
+        if (watcher != null) {
+            watcher.stop();
         }
-    }
 
-    public void destroy() {
+        compiler.destroy();
+
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                LOG.debug("unable to unregister sass compile metrics", e);
+            }
+        }
     }
 
     public void setCompiler(Compiler compiler) {
@@ -0,0 +1,57 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Does the actual compiling for a {@link Compiler}, which takes care of everything
+ * around it: working out what's stale, staging, post processing and listeners.
+ * <p>
+ * Engines are found with {@link java.util.ServiceLoader}, so one is plugged in by
+ * listing it in {@code META-INF/services/com.darrinholst.sass_java.SassEngine} and
+ * picking it by {@link #getName() name}. The default is {@link CompassEngine}.
+ * <p>
+ * A compiler initializes its engine once, before the first compile, and may then
+ * call it from several threads at the same time.
+ */
+public interface SassEngine {
+    /**
+     * What the engine is picked by, e.g. the {@code engine} filter parameter.
+     */
+    String getName();
+
+    void initialize(SassEngineConfig config);
+
+    File getSassDirectory();
+
+    File getCssDirectory();
+
+    /**
+     * Directories besides the sass directory that imports are looked for in, so changes
+     * to what's imported from there are noticed too. Empty when there are none.
+     */
+    List<File> getImportPaths();
+
+    /**
+     * Removes what was compiled before and compiles every stylesheet again.
+     *
+     * @param outputDirectory where to write the css, null for the css directory
+     */
+    void compileAll(File outputDirectory);
+
+    /**
+     * Compiles the given entry points and removes the output of the removed ones.
+     *
+     * @param stale           entry points, relative to the sass directory
+     * @param removed         entry points that no longer exist, relative to the sass directory
+     * @param outputDirectory where to write the css, null for the css directory
+     */
+    void compile(List<String> stale, List<String> removed, File outputDirectory);
+
+    /**
+     * Compiles one stylesheet in memory, see {@link Compiler#compile(String, SassOptions)}.
+     */
+    CompileResult compile(String source, SassOptions options);
+
+    void destroy();
+}
@@ -0,0 +1,102 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+
+import java.io.File;
+
+/**
+ * What a {@link Compiler} was configured with, handed to its {@link SassEngine}.
+ * Engines ignore what doesn't apply to them, e.g. the runtime pool settings.
+ */
+public class SassEngineConfig {
+    private File configLocation;
+    private int runtimePoolSize = Compiler.DEFAULT_RUNTIME_POOL_SIZE;
+    private LocalContextScope localContextScope = Compiler.DEFAULT_LOCAL_CONTEXT_SCOPE;
+    private int parallelism;
+    private Boolean sourceMaps;
+    private boolean sourceMapsEmbedSources;
+    private File gemsDirectory;
+    private File cacheLocation;
+
+    /**
+     * The compass config.rb, which may not exist when only compiling in memory.
+     */
+    public File getConfigLocation() {
+        return configLocation;
+    }
+
+    public void setConfigLocation(File configLocation) {
+        this.configLocation = configLocation;
+    }
+
+    public int getRuntimePoolSize() {
+        return runtimePoolSize;
+    }
+
+    public void setRuntimePoolSize(int runtimePoolSize) {
+        this.runtimePoolSize = runtimePoolSize;
+    }
+
+    /**
+     * How many stylesheets to compile at the same time at most, 0 for as many as there
+     * are processors. Never more than the runtime pool has runtimes.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public LocalContextScope getLocalContextScope() {
+        return localContextScope;
+    }
+
+    public void setLocalContextScope(LocalContextScope localContextScope) {
+        this.localContextScope = localContextScope;
+    }
+
+    /**
+     * Null leaves it to the project configuration.
+     */
+    public Boolean getSourceMaps() {
+        return sourceMaps;
+    }
+
+    public void setSourceMaps(Boolean sourceMaps) {
+        this.sourceMaps = sourceMaps;
+    }
+
+    public boolean isSourceMapsEmbedSources() {
+        return sourceMapsEmbedSources;
+    }
+
+    public void setSourceMapsEmbedSources(boolean sourceMapsEmbedSources) {
+        this.sourceMapsEmbedSources = sourceMapsEmbedSources;
+    }
+
+    /**
+     * Where to unpack the gems to load them from disk, see {@link GemBundle}, null
+     * loads them from the class path.
+     */
+    public File getGemsDirectory() {
+        return gemsDirectory;
+    }
+
+    public void setGemsDirectory(File gemsDirectory) {
+        this.gemsDirectory = gemsDirectory;
+    }
+
+    /**
+     * Where parsed stylesheets are cached between compiles, null leaves it to the
+     * project configuration.
+     */
+    public File getCacheLocation() {
+        return cacheLocation;
+    }
+
+    public void setCacheLocation(File cacheLocation) {
+        this.cacheLocation = cacheLocation;
+    }
+}
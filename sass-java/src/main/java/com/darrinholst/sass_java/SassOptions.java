@@ -0,0 +1,76 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options for compiling a single stylesheet in memory with
+ * {@link Compiler#compile(String, SassOptions)}.
+ */
+public class SassOptions {
+    public enum Syntax {
+        SCSS, SASS
+    }
+
+    public enum Style {
+        NESTED, EXPANDED, COMPACT, COMPRESSED
+    }
+
+    private Syntax syntax = Syntax.SCSS;
+    private Style style = Style.NESTED;
+    private List<File> loadPaths = new ArrayList<File>();
+    private boolean sourceMap;
+    private String filename;
+
+    public Syntax getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(Syntax syntax) {
+        this.syntax = syntax;
+    }
+
+    public Style getStyle() {
+        return style;
+    }
+
+    public void setStyle(Style style) {
+        this.style = style;
+    }
+
+    /**
+     * Directories searched for imports, before the compass frameworks.
+     */
+    public List<File> getLoadPaths() {
+        return loadPaths;
+    }
+
+    public void setLoadPaths(List<File> loadPaths) {
+        this.loadPaths = loadPaths;
+    }
+
+    public boolean isSourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * Also produce a source map, with the sources embedded so it doesn't refer to
+     * anything on disk.
+     */
+    public void setSourceMap(boolean sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Name reported in errors and source maps, and the base name of the css the source
+     * map points at. Defaults to {@code stylesheet.scss} or {@code stylesheet.sass}.
+     */
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+}
@@ -0,0 +1,168 @@
+package com.darrinholst.sass_java;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the sass source directories on a background thread and runs a callback once
+ * a burst of changes has settled for the debounce interval.
+ */
+public class SassWatcher implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SassWatcher.class);
+
+    private final List<File> directories;
+    private final long debounceMillis;
+    private final Runnable onChange;
+    private final AtomicLong generation = new AtomicLong();
+    private WatchService watchService;
+    private Thread thread;
+
+    public SassWatcher(List<File> directories, long debounceMillis, Runnable onChange) {
+        this.directories = directories;
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+    }
+
+    public synchronized void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+
+        for (File directory : directories) {
+            registerAll(directory.toPath());
+        }
+
+        thread = new Thread(this, "sass-java-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debug("exception thrown while closing the sass watcher", e);
+            }
+        }
+    }
+
+    /**
+     * Incremented as soon as a relevant change is seen, before the debounce interval
+     * has passed, so callers can tell that a compile is on its way.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public void run() {
+        WatchService service = watchService;
+
+        try {
+            while (true) {
+                boolean changed = handle(service.take());
+
+                WatchKey key;
+                while ((key = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= handle(key);
+                }
+
+                if (changed) {
+                    notifyChanged();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOG.debug("sass watcher stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyChanged() {
+        try {
+            onChange.run();
+        } catch (RuntimeException e) {
+            LOG.warn("exception thrown while handling sass changes", e);
+        }
+    }
+
+    private boolean handle(WatchKey key) {
+        boolean changed = false;
+        Path directory = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed = true;
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path) && !isHidden(path)) {
+                registerQuietly(path);
+                changed = true;
+            } else if (isSource(path)) {
+                changed = true;
+            }
+        }
+
+        key.reset();
+
+        if (changed) {
+            generation.incrementAndGet();
+        }
+
+        return changed;
+    }
+
+    /**
+     * Only sass sources and ruby configuration count, so the css, source maps and the
+     * .sass-cache that a compile writes never trigger another compile.
+     */
+    private boolean isSource(Path path) {
+        String name = path.getFileName().toString();
+        return !isHidden(path) && (DependencyGraph.isSassFile(path.toFile()) || name.endsWith(".rb"));
+    }
+
+    private boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private void registerQuietly(Path directory) {
+        try {
+            registerAll(directory);
+        } catch (IOException e) {
+            LOG.warn("unable to watch " + directory, e);
+        }
+    }
+
+    private void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                if (isHidden(directory)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
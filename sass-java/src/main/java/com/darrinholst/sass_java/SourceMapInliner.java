@@ -0,0 +1,68 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves source maps into the stylesheets they describe as data URIs. Only stylesheets
+ * with a map file next to them are touched, and the map file is removed once inlined,
+ * so after a compile just the stylesheets that were written again are rewritten.
+ */
+public class SourceMapInliner {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern SOURCE_MAPPING_URL = Pattern.compile("/\\*# sourceMappingURL=[^*]*\\*/\\s*$");
+
+    public void inline(File cssDirectory) throws IOException {
+        File[] files = cssDirectory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                inline(file);
+            } else if (file.getName().endsWith(".css")) {
+                inlineStylesheet(file);
+            }
+        }
+    }
+
+    public void inlineStylesheet(File css) throws IOException {
+        File map = new File(css.getPath() + ".map");
+
+        if (map.isFile()) {
+            inline(css, map);
+        }
+    }
+
+    private void inline(File css, File map) throws IOException {
+        String content = new String(Files.readAllBytes(css.toPath()), UTF_8);
+        String dataUri = "data:application/json;charset=utf-8;base64," + Base64.getEncoder().encodeToString(Files.readAllBytes(map.toPath()));
+        String comment = "/*# sourceMappingURL=" + dataUri + " */\n";
+
+        Matcher matcher = SOURCE_MAPPING_URL.matcher(content);
+        content = matcher.find()
+                ? content.substring(0, matcher.start()) + comment
+                : content + "\n" + comment;
+
+        File temporary = new File(css.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            output.write(content.getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+
+        AtomicFiles.move(temporary, css);
+        map.delete();
+    }
+}
@@ -0,0 +1,120 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled output kept in memory by request path. Least recently used entries are
+ * evicted once the total size of the cached content goes over the limit.
+ */
+public class StylesheetCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes;
+
+    public StylesheetCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public synchronized void put(String path, Entry entry) {
+        if (entry.getContent().length > maxBytes) {
+            return;
+        }
+
+        Entry previous = entries.put(path, entry);
+
+        if (previous != null) {
+            bytes -= previous.getContent().length;
+        }
+
+        bytes += entry.getContent().length;
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().getContent().length;
+            iterator.remove();
+        }
+    }
+
+    public static class Entry {
+        private final byte[] content;
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        private final String contentType;
+
+        public Entry(byte[] content, long lastModified, String contentType) {
+            this.content = content;
+            this.file = null;
+            this.length = content.length;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.etag = "\"" + Fingerprint.sha1(content).substring(0, 16) + "\"";
+        }
+
+        /**
+         * An entry served straight from the file, which is never put in the cache and
+         * gets a weak etag from its size and modification time instead of a content hash.
+         */
+        public Entry(File file, String contentType) {
+            this.content = null;
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.contentType = contentType;
+            this.etag = "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.darrinholst.sass_java;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers requests for compiled stylesheets straight from a {@link StylesheetCache},
+ * reading each file from disk only the first time it is asked for after a compile.
+ * Files too big for the cache, typically source maps with their sources embedded, are
+ * streamed from disk instead of being read into memory. Pre-compressed variants are
+ * preferred when the client accepts their encoding.
+ */
+public class StylesheetServer {
+    private final ServletContext servletContext;
+    private final StylesheetCache cache;
+    private final List<Compressor> compressors;
+
+    public StylesheetServer(ServletContext servletContext, StylesheetCache cache) {
+        this(servletContext, cache, Collections.<Compressor>emptyList());
+    }
+
+    public StylesheetServer(ServletContext servletContext, StylesheetCache cache, List<Compressor> compressors) {
+        this.servletContext = servletContext;
+        this.cache = cache;
+        this.compressors = compressors;
+    }
+
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * @return false when the request isn't for a stylesheet that exists, in which case
+     * it should carry on down the filter chain
+     */
+    public boolean serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String method = request.getMethod();
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+
+        String path = pathOf(request);
+        String contentType = contentTypeOf(path);
+
+        if (contentType == null) {
+            return false;
+        }
+
+        if (!compressors.isEmpty()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+
+        for (Compressor compressor : compressors) {
+            if (accepts(acceptEncoding, compressor.getEncoding())) {
+                StylesheetCache.Entry variant = lookup(path + compressor.getExtension(), contentType);
+
+                if (variant != null) {
+                    response.setHeader("Content-Encoding", compressor.getEncoding());
+                    setCacheControl(path, response);
+                    write(variant, request, response);
+                    return true;
+                }
+            }
+        }
+
+        StylesheetCache.Entry entry = lookup(path, contentType);
+
+        if (entry == null) {
+            return false;
+        }
+
+        setCacheControl(path, response);
+        write(entry, request, response);
+        return true;
+    }
+
+    /**
+     * Only set once the stylesheet was found, a missing one must not be cached for a year.
+     */
+    private static void setCacheControl(String path, HttpServletResponse response) {
+        if (Fingerprinter.FINGERPRINTED.matcher(path).matches()) {
+            response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+        }
+    }
+
+    private StylesheetCache.Entry lookup(String path, String contentType) throws IOException {
+        StylesheetCache.Entry entry = cache.get(path);
+
+        if (entry == null) {
+            entry = load(path, contentType);
+
+            if (entry != null && entry.getFile() == null) {
+                cache.put(path, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+
+            if (parts[0].trim().equalsIgnoreCase(encoding)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static void write(StylesheetCache.Entry entry, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("ETag", entry.getEtag());
+        response.setDateHeader("Last-Modified", entry.getLastModified());
+
+        if (notModified(entry, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(entry.getContentType());
+        response.setContentLength((int) entry.getLength());
+
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (entry.getFile() != null) {
+            stream(entry.getFile(), response.getOutputStream());
+        } else {
+            response.getOutputStream().write(entry.getContent());
+        }
+    }
+
+    private static boolean notModified(StylesheetCache.Entry entry, HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals("*") || ifNoneMatch.contains(entry.getEtag());
+        }
+
+        long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        return ifModifiedSince != -1 && entry.getLastModified() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private StylesheetCache.Entry load(String path, String contentType) throws IOException {
+        String realPath = servletContext.getRealPath(path);
+
+        if (realPath == null) {
+            return null;
+        }
+
+        File file = new File(realPath);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        if (file.length() > cache.getMaxBytes()) {
+            return new StylesheetCache.Entry(file, contentType);
+        }
+
+        return new StylesheetCache.Entry(read(file), file.lastModified(), contentType);
+    }
+
+    static String pathOf(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        return (servletPath == null ? "" : servletPath) + (pathInfo == null ? "" : pathInfo);
+    }
+
+    private String contentTypeOf(String path) {
+        if (path.endsWith(".css")) {
+            return "text/css;charset=UTF-8";
+        } else if (path.endsWith(".css.map")) {
+            return "application/json;charset=UTF-8";
+        }
+
+        return null;
+    }
+
+    private static void stream(File file, OutputStream output) throws IOException {
+        InputStream input = new FileInputStream(file);
+
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private byte[] read(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compiled theme variants by key, kept in a {@link StylesheetCache} that's bounded by
+ * size. With a spill directory every variant is also written to disk, so one evicted
+ * from memory, or compiled before a restart, is read back instead of compiled again.
+ * The spill directory is bounded by size too, the variants read or written longest
+ * ago are removed from it first.
+ */
+public class ThemeCache {
+    public static final long DEFAULT_SPILL_MAX_BYTES = 100L * 1024 * 1024;
+
+    private static final String CONTENT_TYPE = "text/css;charset=UTF-8";
+
+    private final StylesheetCache memory;
+    private final File spillDirectory;
+    private final long spillMaxBytes;
+
+    public ThemeCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param spillDirectory where variants are written to, null to only keep them in memory
+     */
+    public ThemeCache(long maxBytes, File spillDirectory) {
+        this(maxBytes, spillDirectory, DEFAULT_SPILL_MAX_BYTES);
+    }
+
+    /**
+     * @param spillMaxBytes 0 to never remove variants from the spill directory
+     */
+    public ThemeCache(long maxBytes, File spillDirectory, long spillMaxBytes) {
+        this.memory = new StylesheetCache(maxBytes);
+        this.spillDirectory = spillDirectory;
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    public StylesheetCache.Entry get(String key) throws IOException {
+        StylesheetCache.Entry entry = memory.get(key);
+
+        if (entry == null && spillDirectory != null) {
+            File file = spillFile(key);
+
+            if (file.isFile()) {
+                entry = new StylesheetCache.Entry(Files.readAllBytes(file.toPath()), file.lastModified(), CONTENT_TYPE);
+                memory.put(key, entry);
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        return entry;
+    }
+
+    public StylesheetCache.Entry put(String key, byte[] css) throws IOException {
+        StylesheetCache.Entry entry = new StylesheetCache.Entry(css, System.currentTimeMillis(), CONTENT_TYPE);
+        memory.put(key, entry);
+
+        if (spillDirectory != null) {
+            spillDirectory.mkdirs();
+            File temporary = new File(spillFile(key).getPath() + ".tmp");
+            OutputStream output = new FileOutputStream(temporary);
+
+            try {
+                output.write(css);
+            } finally {
+                output.close();
+            }
+
+            AtomicFiles.move(temporary, spillFile(key));
+            trimSpillDirectory(key);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Removes the variants used longest ago until the spill directory is back under its
+     * limit, except the one just written.
+     */
+    private void trimSpillDirectory(String written) {
+        File[] files = spillDirectory.listFiles();
+
+        if (spillMaxBytes <= 0 || files == null) {
+            return;
+        }
+
+        long total = 0;
+
+        for (File file : files) {
+            total += file.length();
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for (int i = 0; i < files.length && total > spillMaxBytes; i++) {
+            long length = files[i].length();
+
+            if (!files[i].equals(spillFile(written)) && files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Forgets every variant whose key doesn't start with the given prefix, in memory
+     * and on disk.
+     */
+    public void retain(String prefix) {
+        memory.clear();
+        File[] files = spillDirectory == null ? null : spillDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().startsWith(prefix)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return memory.size();
+    }
+
+    private File spillFile(String key) {
+        return new File(spillDirectory, key + ".css");
+    }
+}
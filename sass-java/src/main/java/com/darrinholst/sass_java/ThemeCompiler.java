@@ -0,0 +1,254 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles one stylesheet with different values for some of its variables, a theme
+ * per tenant or per brand, without writing a file per variant. The values are put in
+ * front of the stylesheet, so it should declare them with {@code !default}.
+ * <p>
+ * Variants are kept in a {@link ThemeCache} under a key made of the version of the
+ * stylesheet and everything it imports and a digest of the values, so any number of
+ * requests for a variant compile it once, concurrent ones included, and a change to
+ * the sources leaves the old variants behind.
+ * <p>
+ * As the values usually come from requests, the number of variants of a version and
+ * the number of variants compiled at the same time are both limited, anything over
+ * either limit is rejected instead of compiled. A variant only counts once it compiled,
+ * so failed and rejected compiles don't use up the limit.
+ */
+public class ThemeCompiler {
+    public static final int DEFAULT_MAX_VARIANTS = 1000;
+    public static final int DEFAULT_MAX_CONCURRENT_COMPILES = Runtime.getRuntime().availableProcessors();
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_-]*");
+    private static final Pattern VALUE = Pattern.compile("[A-Za-z0-9 #%.,()'\"_+-]{1,256}");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Compiler compiler;
+    private final File stylesheet;
+    private final ThemeCache cache;
+    private final ConcurrentMap<String, FutureTask<StylesheetCache.Entry>> compiling = new ConcurrentHashMap<String, FutureTask<StylesheetCache.Entry>>();
+    private final Set<String> variants = new HashSet<String>();
+    private SassOptions.Style style = SassOptions.Style.COMPRESSED;
+    private int maxVariants = DEFAULT_MAX_VARIANTS;
+    private Semaphore compiles = new Semaphore(DEFAULT_MAX_CONCURRENT_COMPILES);
+    private volatile String version;
+
+    public ThemeCompiler(Compiler compiler, File stylesheet, ThemeCache cache) {
+        this.compiler = compiler;
+        this.stylesheet = stylesheet.getAbsoluteFile();
+        this.cache = cache;
+    }
+
+    /**
+     * @param variables values by variable name, without the dollar sign
+     * @throws IllegalArgumentException when a name or value isn't one that can be put in a stylesheet as it is
+     * @throws RejectedExecutionException when the variant would be one too many, or too many are compiling
+     */
+    public StylesheetCache.Entry get(Map<String, String> variables) throws IOException {
+        final Map<String, String> sorted = validate(variables);
+        String key = version() + "-" + digestOf(sorted);
+        StylesheetCache.Entry entry = cache.get(key);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        final String cacheKey = key;
+        FutureTask<StylesheetCache.Entry> task = new FutureTask<StylesheetCache.Entry>(new Callable<StylesheetCache.Entry>() {
+            @Override
+            public StylesheetCache.Entry call() throws Exception {
+                StylesheetCache.Entry cached = cache.get(cacheKey);
+
+                if (cached != null) {
+                    return cached;
+                }
+
+                admit(cacheKey);
+                boolean compiled = false;
+
+                try {
+                    StylesheetCache.Entry entry = cache.put(cacheKey, compileLimited(sorted));
+                    compiled = true;
+                    return entry;
+                } finally {
+                    if (!compiled) {
+                        release(cacheKey);
+                    }
+                }
+            }
+        });
+        FutureTask<StylesheetCache.Entry> existing = compiling.putIfAbsent(key, task);
+
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                compiling.remove(key, task);
+            }
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for " + stylesheet + " to compile", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Called when the sources might have changed, the version is worked out again on
+     * the next request.
+     */
+    public void invalidate() {
+        version = null;
+    }
+
+    public File getStylesheet() {
+        return stylesheet;
+    }
+
+    public void setStyle(SassOptions.Style style) {
+        this.style = style;
+    }
+
+    /**
+     * How many variants of each version of the stylesheet to compile, see {@link #DEFAULT_MAX_VARIANTS}.
+     */
+    public void setMaxVariants(int maxVariants) {
+        this.maxVariants = maxVariants;
+    }
+
+    /**
+     * How many variants to compile at the same time, see {@link #DEFAULT_MAX_CONCURRENT_COMPILES}.
+     */
+    public void setMaxConcurrentCompiles(int maxConcurrentCompiles) {
+        this.compiles = new Semaphore(maxConcurrentCompiles);
+    }
+
+    private synchronized void admit(String key) {
+        if (!variants.contains(key) && variants.size() >= maxVariants) {
+            throw new RejectedExecutionException(stylesheet + " already has " + maxVariants + " variants");
+        }
+
+        variants.add(key);
+    }
+
+    private synchronized void release(String key) {
+        variants.remove(key);
+    }
+
+    private String version() throws IOException {
+        String current = version;
+
+        if (current == null) {
+            StringBuilder fingerprints = new StringBuilder();
+
+            for (Map.Entry<File, Fingerprint> fingerprint : DependencyGraph.scanEntryPoint(compiler.getSassDirectory(), compiler.getImportPaths(), stylesheet).getFingerprints().entrySet()) {
+                fingerprints.append(fingerprint.getKey()).append('=').append(fingerprint.getValue()).append('\n');
+            }
+
+            current = Fingerprint.sha1(fingerprints.toString().getBytes(UTF_8)).substring(0, 16);
+
+            synchronized (this) {
+                if (!current.equals(version)) {
+                    cache.retain(current);
+                    variants.clear();
+                }
+
+                version = current;
+            }
+        }
+
+        return current;
+    }
+
+    private byte[] compileLimited(Map<String, String> variables) throws IOException {
+        Semaphore permits = compiles;
+
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("too many variants of " + stylesheet + " are compiling");
+        }
+
+        try {
+            return compile(variables);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private byte[] compile(Map<String, String> variables) throws IOException {
+        boolean indented = stylesheet.getName().endsWith(".sass");
+        StringBuilder source = new StringBuilder();
+
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            source.append('$').append(variable.getKey()).append(": ").append(variable.getValue()).append(indented ? "\n" : ";\n");
+        }
+
+        source.append(new String(Files.readAllBytes(stylesheet.toPath()), UTF_8));
+
+        SassOptions options = new SassOptions();
+        options.setSyntax(indented ? SassOptions.Syntax.SASS : SassOptions.Syntax.SCSS);
+        options.setStyle(style);
+        options.setFilename(stylesheet.getPath());
+        options.getLoadPaths().add(stylesheet.getParentFile());
+
+        return compiler.compile(source.toString(), options).getCss().getBytes(UTF_8);
+    }
+
+    private Map<String, String> validate(Map<String, String> variables) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            if (!NAME.matcher(variable.getKey()).matches()) {
+                throw new IllegalArgumentException(variable.getKey() + " isn't a variable name");
+            }
+
+            if (variable.getValue() == null || !VALUE.matcher(variable.getValue()).matches()) {
+                throw new IllegalArgumentException("$" + variable.getKey() + " can't be set to " + variable.getValue());
+            }
+
+            sorted.put(variable.getKey(), variable.getValue());
+        }
+
+        return sorted;
+    }
+
+    private String digestOf(Map<String, String> variables) {
+        StringBuilder values = new StringBuilder();
+
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            values.append(variable.getKey()).append('=').append(variable.getValue()).append('\n');
+        }
+
+        return Fingerprint.sha1(values.toString().getBytes(UTF_8)).substring(0, 16);
+    }
+}
@@ -0,0 +1,15 @@
+package com.darrinholst.sass_java;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * Works out which theme a request is for, as the sass variables to compile the theme
+ * stylesheet with, see {@link ThemeCompiler}.
+ */
+public interface ThemeResolver {
+    /**
+     * @return the variables to override, empty for the defaults of the stylesheet
+     */
+    Map<String, String> resolve(HttpServletRequest request);
+}
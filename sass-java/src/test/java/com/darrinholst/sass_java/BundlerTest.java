@@ -0,0 +1,118 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.fail;
+
+public class BundlerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cssDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        cssDirectory = temporaryFolder.newFolder("css");
+        write("base.css", "@charset \"UTF-8\";\nbody {\n  content: \"\u00e9\";\n}\n");
+        write("admin/users.css", "p {\n  margin: 0;\n}\n");
+    }
+
+    @Test
+    public void readsBundleDeclarations() {
+        Map<String, List<String>> bundles = Bundler.parse(" site.css = base.css, layout.css ;\n admin.css=base.css,admin/users.css; ");
+
+        assertEquals(asList("site.css", "admin.css"), asList(bundles.keySet().toArray()));
+        assertEquals(asList("base.css", "layout.css"), bundles.get("site.css"));
+        assertEquals(asList("base.css", "admin/users.css"), bundles.get("admin.css"));
+    }
+
+    @Test
+    public void concatenatesMinifiedMembersWithASingleCharsetRule() throws Exception {
+        new Bundler(Bundler.parse("admin.css=admin/users.css,base.css")).bundle(cssDirectory);
+
+        assertEquals("@charset \"UTF-8\";p{margin:0}\nbody{content:\"\u00e9\"}\n", read("admin.css"));
+        assertEquals(asList("admin", "admin.css", "base.css"), sorted(cssDirectory.list()));
+    }
+
+    @Test
+    public void replacesByteOrderMarksOfMembersWithASingleCharsetRule() throws Exception {
+        write("compressed.css", "\ufeffa{content:\"\u2192\"}\n");
+
+        new Bundler(Bundler.parse("site.css=compressed.css,admin/users.css,base.css")).bundle(cssDirectory);
+
+        assertEquals("@charset \"UTF-8\";a{content:\"\u2192\"}\np{margin:0}\nbody{content:\"\u00e9\"}\n", read("site.css"));
+    }
+
+    @Test
+    public void onlyMinifiesMembersThatChanged() throws Exception {
+        Bundler bundler = new Bundler(Bundler.parse("admin.css=base.css,admin/users.css"));
+        bundler.bundle(cssDirectory);
+
+        File minified = Bundler.stateDirectoryOf(cssDirectory).listFiles()[0];
+        long minifiedAt = minified.lastModified() - 10000;
+        for (File file : minified.getParentFile().listFiles()) {
+            file.setLastModified(minifiedAt);
+        }
+
+        File users = new File(cssDirectory, "admin/users.css");
+        write("admin/users.css", "p {\n  margin: 1px;\n}\n");
+        users.setLastModified(users.lastModified() + 2000);
+        bundler.bundle(cssDirectory);
+
+        int reused = 0;
+        for (File file : minified.getParentFile().listFiles()) {
+            if (file.getName().endsWith(".min") && file.lastModified() == minifiedAt) {
+                reused++;
+            }
+        }
+
+        assertEquals(1, reused);
+        assertEquals("@charset \"UTF-8\";body{content:\"\u00e9\"}\np{margin:1px}\n", read("admin.css"));
+    }
+
+    @Test
+    public void removesBundlesThatAreNoLongerDeclared() throws Exception {
+        new Bundler(Bundler.parse("site.css=base.css;admin.css=admin/users.css")).bundle(cssDirectory);
+        new Bundler(Bundler.parse("site.css=base.css")).bundle(cssDirectory);
+
+        assertFalse(new File(cssDirectory, "admin.css").exists());
+        assertEquals(1, Bundler.stateDirectoryOf(cssDirectory).list().length - 1);
+    }
+
+    @Test
+    public void failsForMembersThatWereNotCompiled() throws Exception {
+        try {
+            new Bundler(Bundler.parse("site.css=base.css,missing.css")).bundle(cssDirectory);
+            fail("expected the bundle to fail");
+        } catch (java.io.IOException e) {
+            assertEquals("bundle site.css includes missing.css, which isn't a stylesheet in " + cssDirectory, e.getMessage());
+        }
+    }
+
+    private List<String> sorted(String[] names) {
+        List<String> sorted = new ArrayList<String>(asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private String read(String path) throws Exception {
+        return FileUtils.readFileToString(new File(cssDirectory, path), "UTF-8");
+    }
+
+    private void write(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(cssDirectory, path), content, "UTF-8");
+    }
+}
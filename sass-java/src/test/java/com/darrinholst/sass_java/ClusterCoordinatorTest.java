@@ -0,0 +1,164 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ClusterCoordinatorTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sassDirectory;
+    private File cssDirectory;
+    private File configLocation;
+    private File shared;
+    private AtomicInteger compiles = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        sassDirectory = temporaryFolder.newFolder("sass");
+        cssDirectory = temporaryFolder.newFolder("css");
+        shared = new File(temporaryFolder.getRoot(), "shared");
+        configLocation = new File(sassDirectory, "config.rb");
+        FileUtils.writeStringToFile(configLocation, "sass_dir = '.'");
+        FileUtils.writeStringToFile(new File(sassDirectory, "app.scss"), "body {}");
+    }
+
+    @Test
+    public void onlyOneNodeCompilesEachChange() throws Exception {
+        assertTrue(node().compile(new CountingCompiler(0)));
+        assertFalse(node().compile(new CountingCompiler(0)));
+        assertEquals(1, compiles.get());
+
+        File app = new File(sassDirectory, "app.scss");
+        FileUtils.writeStringToFile(app, "body { color: red }");
+        app.setLastModified(app.lastModified() + 2000);
+
+        assertTrue(node().compile(new CountingCompiler(0)));
+        assertEquals(2, compiles.get());
+        assertEquals(2, node().getGeneration());
+    }
+
+    @Test
+    public void nodesCompilingAtTheSameTimeWaitForTheOneHoldingTheLock() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] nodes = new Thread[4];
+
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        node().compile(new CountingCompiler(200));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            nodes[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread node : nodes) {
+            node.join(10000);
+        }
+
+        assertEquals(1, compiles.get());
+    }
+
+    @Test
+    public void otherNodesReportTheErrorOfAFailedCompile() throws Exception {
+        try {
+            node().compile(new FailingCompiler());
+            fail("expected the compile to fail");
+        } catch (RuntimeException e) {
+            assertEquals("Invalid CSS after \"body {\"", e.getMessage());
+        }
+
+        try {
+            node().compile(new CountingCompiler(0));
+            fail("expected the recorded error");
+        } catch (RuntimeException e) {
+            assertEquals("Invalid CSS after \"body {\"", e.getMessage());
+        }
+
+        assertEquals(0, compiles.get());
+    }
+
+    @Test
+    public void otherNodesCompileAgainAfterACompileEndedInAnError() throws Exception {
+        try {
+            node().compile(new CountingCompiler(0) {
+                @Override
+                public void compile() {
+                    super.compile();
+                    throw new OutOfMemoryError("Java heap space");
+                }
+            });
+            fail("expected the compile to fail");
+        } catch (OutOfMemoryError e) {
+            assertEquals("Java heap space", e.getMessage());
+        }
+
+        assertTrue(node().compile(new CountingCompiler(0)));
+        assertEquals(2, compiles.get());
+        assertEquals(1, node().getGeneration());
+    }
+
+    private ClusterCoordinator node() {
+        return new ClusterCoordinator(shared, configLocation);
+    }
+
+    private class CountingCompiler extends Compiler {
+        private final long compileTime;
+
+        private CountingCompiler(long compileTime) {
+            this.compileTime = compileTime;
+        }
+
+        @Override
+        public void compile() {
+            try {
+                Thread.sleep(compileTime);
+                FileUtils.writeStringToFile(new File(OutputPublisher.stateDirectoryOf(cssDirectory), OutputPublisher.OUTPUTS_FILE), "app.css=");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            compiles.incrementAndGet();
+        }
+
+        @Override
+        public File getSassDirectory() {
+            return sassDirectory;
+        }
+
+        @Override
+        public File getCssDirectory() {
+            return cssDirectory;
+        }
+    }
+
+    private class FailingCompiler extends CountingCompiler {
+        private FailingCompiler() {
+            super(0);
+        }
+
+        @Override
+        public void compile() {
+            throw new RuntimeException("Invalid CSS after \"body {\"");
+        }
+    }
+}
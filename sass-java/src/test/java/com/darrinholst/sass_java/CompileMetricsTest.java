@@ -0,0 +1,66 @@
+package com.darrinholst.sass_java;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+public class CompileMetricsTest {
+    private static final long MILLISECOND = 1000000L;
+
+    private final CompileMetrics metrics = new CompileMetrics();
+
+    @Test
+    public void summarizesCompileDurations() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.compileFinished(i * MILLISECOND, 2, null);
+        }
+
+        assertEquals(100, metrics.getCompileCount());
+        assertEquals(50.5, metrics.getMeanCompileMillis());
+        assertEquals(50.0, metrics.getMedianCompileMillis());
+        assertEquals(95.0, metrics.get95thPercentileCompileMillis());
+        assertEquals(99.0, metrics.get99thPercentileCompileMillis());
+        assertEquals(100.0, metrics.getMaxCompileMillis());
+        assertEquals(200, metrics.getFilesCompiled());
+        assertEquals(2, metrics.getLastFilesCompiled());
+    }
+
+    @Test
+    public void percentilesOnlyCoverRecentCompiles() {
+        for (int i = 0; i < 1024; i++) {
+            metrics.compileFinished(1000 * MILLISECOND, 1, null);
+        }
+        for (int i = 0; i < 1024; i++) {
+            metrics.compileFinished(MILLISECOND, 1, null);
+        }
+
+        assertEquals(1.0, metrics.get99thPercentileCompileMillis());
+        assertEquals(1000.0, metrics.getMaxCompileMillis());
+    }
+
+    @Test
+    public void remembersTheLastError() {
+        metrics.compileFinished(MILLISECOND, 0, new RuntimeException("Undefined variable: \"$black\""));
+        metrics.compileFinished(MILLISECOND, 1, null);
+
+        assertEquals(2, metrics.getCompileCount());
+        assertEquals(1, metrics.getFailedCompileCount());
+        assertEquals("java.lang.RuntimeException: Undefined variable: \"$black\"", metrics.getLastError());
+        assertNotNull(metrics.getLastErrorTime());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        metrics.compileFinished(MILLISECOND, 1, new IllegalStateException());
+        metrics.requestWaited(MILLISECOND);
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getCompileCount());
+        assertEquals(0, metrics.getRequestWaitCount());
+        assertEquals(0.0, metrics.getMedianRequestWaitMillis());
+        assertNull(metrics.getLastError());
+    }
+}
@@ -0,0 +1,143 @@
+package com.darrinholst.sass_java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.Properties;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class CompileServerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File daemonFile;
+    private CompileClient client;
+    private CompileServer server;
+    private Thread serverThread;
+    private volatile int compiles;
+    private volatile int created;
+
+    @Before
+    public void setup() throws Exception {
+        daemonFile = new File(temporaryFolder.getRoot(), "daemon/daemon.properties");
+        client = new CompileClient(daemonFile);
+        client.setStartServer(false);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (server != null) {
+            server.stop();
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void compilesWithAWarmCompilerPerProject() throws Exception {
+        startServer(60000);
+
+        Properties response = client.compile(request("/project/config.rb"));
+        client.compile(request("/project/config.rb"));
+
+        assertEquals(2, compiles);
+        assertEquals(1, created);
+        assertEquals(new File("/project/sass").getPath(), response.getProperty(CompileServer.SASS_DIRECTORY));
+        assertEquals(new File("/project/css").getPath(), response.getProperty(CompileServer.CSS_DIRECTORY));
+    }
+
+    @Test
+    public void reportsFailedCompiles() throws Exception {
+        startServer(60000);
+
+        try {
+            client.compile(request("/broken/config.rb"));
+            fail("expected the compile to fail");
+        } catch (RuntimeException e) {
+            assertEquals("Invalid CSS after \"body {\"", e.getMessage());
+        }
+    }
+
+    @Test
+    public void returnsNullWhenNoServerIsRunning() throws Exception {
+        assertNull(client.compile(request("/project/config.rb")));
+    }
+
+    @Test
+    public void shutsDownWhenIdle() throws Exception {
+        startServer(100);
+        assertTrue(daemonFile.isFile());
+
+        serverThread.join(10000);
+
+        assertFalse(serverThread.isAlive());
+        assertFalse(daemonFile.exists());
+        assertNull(client.compile(request("/project/config.rb")));
+    }
+
+    @Test
+    public void hangsUpOnClientsThatSendNothing() throws Exception {
+        startServer(100);
+        server.setReadTimeout(200);
+        Socket silent = new Socket("127.0.0.1", server.getPort());
+
+        try {
+            serverThread.join(10000);
+
+            assertFalse(serverThread.isAlive());
+            assertEquals(-1, silent.getInputStream().read());
+        } finally {
+            silent.close();
+        }
+    }
+
+    private Properties request(String config) {
+        Properties request = new Properties();
+        request.setProperty(CompileServer.CONFIG, config);
+        return request;
+    }
+
+    private void startServer(long idleTimeout) throws Exception {
+        server = new CompileServer(daemonFile, idleTimeout) {
+            @Override
+            protected Compiler createCompiler(final Properties request) {
+                created++;
+                final File project = new File(request.getProperty(CompileServer.CONFIG)).getParentFile();
+
+                return new Compiler() {
+                    @Override
+                    public void compile() {
+                        if (project.getName().equals("broken")) {
+                            throw new RuntimeException("Invalid CSS after \"body {\"");
+                        }
+
+                        compiles++;
+                    }
+
+                    @Override
+                    public File getSassDirectory() {
+                        return new File(project, "sass");
+                    }
+
+                    @Override
+                    public File getCssDirectory() {
+                        return new File(project, "css");
+                    }
+                };
+            }
+        };
+
+        server.start();
+        serverThread = new Thread(server);
+        serverThread.start();
+    }
+}
@@ -0,0 +1,182 @@
+package com.darrinholst.sass_java;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class CompilerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Compiler compiler;
+
+    @BeforeClass
+    public static void createCompiler() {
+        compiler = new Compiler();
+    }
+
+    @AfterClass
+    public static void destroyCompiler() {
+        compiler.destroy();
+    }
+
+    @Test
+    public void compilesAStringWithoutAProject() {
+        SassOptions options = new SassOptions();
+        options.setStyle(SassOptions.Style.COMPRESSED);
+
+        CompileResult result = compiler.compile("$black: #000;\nbody { color: $black; }", options);
+
+        assertEquals("body{color:#000}\n", result.getCss());
+        assertNull(result.getSourceMap());
+    }
+
+    @Test
+    public void compilesIndentedSyntaxFromAReader() throws Exception {
+        SassOptions options = new SassOptions();
+        options.setSyntax(SassOptions.Syntax.SASS);
+        options.setStyle(SassOptions.Style.COMPRESSED);
+
+        CompileResult result = compiler.compile(new StringReader("body\n  color: red\n"), options);
+
+        assertEquals("body{color:red}\n", result.getCss());
+    }
+
+    @Test
+    public void importsFromLoadPathsAndCompass() throws Exception {
+        File partials = temporaryFolder.newFolder("partials");
+        write(new File(partials, "_colors.scss"), "$brand: #336699;");
+
+        SassOptions options = new SassOptions();
+        options.setStyle(SassOptions.Style.COMPRESSED);
+        options.setLoadPaths(Arrays.asList(partials));
+
+        CompileResult result = compiler.compile("@import 'colors';\n@import 'compass/css3';\na { color: $brand; @include border-radius(2px); }", options);
+
+        assertTrue(result.getCss(), result.getCss().contains("color:#369"));
+        assertTrue(result.getCss(), result.getCss().contains("border-radius:2px"));
+    }
+
+    @Test
+    public void compilesAFileWithItsSiblingPartialsAndASourceMap() throws Exception {
+        File directory = temporaryFolder.newFolder("theme");
+        write(new File(directory, "_colors.scss"), "$brand: #336699;");
+        write(new File(directory, "theme.scss"), "@import 'colors';\na { color: $brand; }\n");
+
+        SassOptions options = new SassOptions();
+        options.setSourceMap(true);
+
+        CompileResult result = compiler.compile(new File(directory, "theme.scss").toPath(), options);
+
+        assertTrue(result.getCss(), result.getCss().contains("color: #336699"));
+        assertTrue(result.getCss(), result.getCss().contains("sourceMappingURL=theme.css.map"));
+        assertTrue(result.getSourceMap(), result.getSourceMap().contains("\"file\": \"theme.css\""));
+        assertTrue(result.getSourceMap(), result.getSourceMap().contains("$brand: #336699;"));
+    }
+
+    @Test
+    public void resolvesImportsRelativeToAFilenameInTheSassDirectory() throws Exception {
+        File project = temporaryFolder.newFolder("project");
+        write(new File(project, "config.rb"), "sass_dir = 'sass'");
+        new File(project, "sass/themes").mkdirs();
+        write(new File(project, "sass/themes/_colors.scss"), "$brand: #336699;");
+
+        Compiler themes = new Compiler();
+        themes.setConfigLocation(new File(project, "config.rb"));
+
+        try {
+            SassOptions options = new SassOptions();
+            options.setStyle(SassOptions.Style.COMPRESSED);
+            options.setFilename("themes/dark.scss");
+
+            assertEquals("a{color:#369}", themes.compile("@import 'colors';\na { color: $brand; }", options).getCss().trim());
+        } finally {
+            themes.destroy();
+        }
+    }
+
+    @Test
+    public void reportsSyntaxErrors() {
+        SassOptions options = new SassOptions();
+        options.setFilename("broken.scss");
+
+        try {
+            compiler.compile("body { color: $undefined; }", options);
+            fail("expected the compile to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Undefined variable"));
+        }
+    }
+
+    @Test
+    public void compilesWithTheEngineOfTheGivenName() {
+        Compiler echo = new Compiler();
+        echo.setEngine("echo");
+        echo.setConfigLocation(new File(temporaryFolder.getRoot(), "config.rb"));
+
+        try {
+            assertEquals("body { color: $black; }", echo.compile("body { color: $black; }", new SassOptions()).getCss());
+            assertEquals(temporaryFolder.getRoot(), echo.getCssDirectory());
+        } finally {
+            echo.destroy();
+        }
+    }
+
+    @Test
+    public void reportsWhetherAnIncrementalCompileChangedTheOutputs() throws Exception {
+        CompileMetrics metrics = new CompileMetrics();
+        Compiler echo = new Compiler();
+        echo.setEngine("echo");
+        echo.setIncremental(true);
+        echo.setCompileListeners(Arrays.<CompileListener>asList(metrics));
+        echo.setConfigLocation(new File(temporaryFolder.getRoot(), "config.rb"));
+        write(new File(temporaryFolder.getRoot(), "app.scss"), "body { color: #000; }");
+
+        try {
+            echo.compile();
+            assertTrue(echo.hasChangedOutputs());
+            echo.compile();
+            assertFalse(echo.hasChangedOutputs());
+
+            write(new File(temporaryFolder.getRoot(), "app.scss"), "body { color: #111111; }");
+            echo.compile();
+            assertTrue(echo.hasChangedOutputs());
+            assertEquals(2, metrics.getCompileCount());
+        } finally {
+            echo.destroy();
+        }
+    }
+
+    @Test
+    public void reportsEnginesThatAreNotAvailable() {
+        Compiler missing = new Compiler();
+        missing.setEngine("libsass");
+
+        try {
+            missing.compile("body {}", new SassOptions());
+            fail("expected there to be no such engine");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no sass engine named libsass"));
+            assertTrue(e.getMessage(), e.getMessage().contains("compass"));
+        }
+    }
+
+    private void write(File file, String content) throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content.getBytes("UTF-8"));
+        output.close();
+    }
+}
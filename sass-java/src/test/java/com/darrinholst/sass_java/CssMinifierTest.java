@@ -0,0 +1,42 @@
+package com.darrinholst.sass_java;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static junit.framework.Assert.assertEquals;
+
+public class CssMinifierTest {
+    @Test
+    public void removesWhitespaceThatDoesNotSeparateAnything() throws Exception {
+        assertEquals("a>b,.c{color:red;margin:0 auto}", minify("a > b,\n.c {\n  color: red;\n  margin: 0  auto;\n}\n"));
+    }
+
+    @Test
+    public void keepsWhitespaceThatIsSignificant() throws Exception {
+        assertEquals(".a :hover{width:calc(100% - 2px)}@media screen and (max-width:10px){p{top:0}}",
+                minify(".a :hover { width: calc(100% - 2px); }\n@media screen and (max-width: 10px) { p { top: 0; } }"));
+    }
+
+    @Test
+    public void removesCommentsButKeepsLicenses() throws Exception {
+        assertEquals("/*! MIT */p{top:0}", minify("/*! MIT */\n/* a comment */p { top: 0; }\n/*# sourceMappingURL=app.css.map */\n"));
+    }
+
+    @Test
+    public void copiesStringsAsTheyAre() throws Exception {
+        assertEquals("p:before{content:\"a ; b /* c */ \\\" }\"}", minify("p:before { content: \"a ; b /* c */ \\\" }\"; }"));
+    }
+
+    @Test
+    public void keepsTheSemicolonOfStatementsOutsideBlocks() throws Exception {
+        assertEquals("@import url(base.css);", minify("@import url(base.css);\n"));
+    }
+
+    private String minify(String css) throws Exception {
+        StringWriter output = new StringWriter();
+        new CssMinifier().minify(new StringReader(css), output);
+        return output.toString();
+    }
+}
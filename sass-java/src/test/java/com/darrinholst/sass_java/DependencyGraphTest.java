@@ -0,0 +1,189 @@
+package com.darrinholst.sass_java;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class DependencyGraphTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sassDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        sassDirectory = temporaryFolder.newFolder("sass").getCanonicalFile();
+    }
+
+    @Test
+    public void everyEntryPointIsStaleWithoutAPreviousGraph() throws Exception {
+        write("_colors.scss", "$black: #000;");
+        write("base.scss", "@import 'colors';");
+        write("print.scss", "");
+
+        DependencyGraph graph = scan();
+
+        assertEquals(asList(file("base.scss"), file("print.scss")), graph.getStaleEntryPoints(null));
+    }
+
+    @Test
+    public void resolvesPartialsInSubdirectories() throws Exception {
+        write("partials/_colors.scss", "");
+        write("base.scss", "// @import 'ignored';\n@import \"partials/colors\", 'compass/css3';");
+
+        DependencyGraph graph = scan();
+
+        assertEquals(Collections.singleton(file("partials/_colors.scss")), graph.getImports(file("base.scss")));
+    }
+
+    @Test
+    public void nothingIsStaleWhenNothingChanged() throws Exception {
+        write("_colors.scss", "$black: #000;");
+        write("base.scss", "@import 'colors';");
+
+        DependencyGraph previous = scan();
+
+        assertTrue(scan().getStaleEntryPoints(previous).isEmpty());
+    }
+
+    @Test
+    public void changingAPartialMakesOnlyItsImportersStale() throws Exception {
+        write("_colors.scss", "$black: #000;");
+        write("_mixins.scss", "@import 'colors';");
+        write("base.scss", "@import 'mixins';");
+        write("print.scss", "");
+
+        DependencyGraph previous = scan();
+        write("_colors.scss", "$black: #111111;");
+
+        assertEquals(asList(file("base.scss")), scan().getStaleEntryPoints(previous));
+    }
+
+    @Test
+    public void deletingAPartialMakesItsImportersStale() throws Exception {
+        write("_colors.scss", "");
+        write("base.scss", "@import 'colors';");
+
+        DependencyGraph previous = scan();
+        assertTrue(file("_colors.scss").delete());
+
+        assertEquals(asList(file("base.scss")), scan().getStaleEntryPoints(previous));
+    }
+
+    @Test
+    public void reportsRemovedEntryPoints() throws Exception {
+        write("base.scss", "");
+        write("print.scss", "");
+
+        DependencyGraph previous = scan();
+        assertTrue(file("print.scss").delete());
+
+        DependencyGraph graph = scan();
+
+        assertEquals(asList(file("print.scss")), graph.getRemovedEntryPoints(previous));
+        assertEquals("print.scss", graph.relativePathOf(file("print.scss")));
+    }
+
+    @Test
+    public void touchingAFileIsNotAChangeWhenFingerprintingContents() throws Exception {
+        write("base.scss", "body {color: #000}");
+
+        DependencyGraph previous = DependencyGraph.scan(sassDirectory, true);
+        assertTrue(file("base.scss").setLastModified(file("base.scss").lastModified() + 5000));
+
+        assertTrue(DependencyGraph.scan(sassDirectory, true).getStaleEntryPoints(previous).isEmpty());
+    }
+
+    @Test
+    public void restoredGraphCanBeThePreviousSnapshot() throws Exception {
+        write("_colors.scss", "$black: #000;");
+        write("base.scss", "@import 'colors';");
+        write("print.scss", "");
+
+        Map<File, Fingerprint> recorded = new HashMap<File, Fingerprint>();
+        for (Map.Entry<File, Fingerprint> entry : scan().getFingerprints().entrySet()) {
+            recorded.put(entry.getKey(), Fingerprint.parse(entry.getValue().toString()));
+        }
+
+        DependencyGraph previous = DependencyGraph.restore(sassDirectory, recorded);
+        assertTrue(scan().getStaleEntryPoints(previous).isEmpty());
+
+        write("_colors.scss", "$black: #111111;");
+        assertEquals(asList(file("base.scss")), scan().getStaleEntryPoints(previous));
+    }
+
+    @Test
+    public void changingAPartialImportedFromOutsideTheSassDirectoryMakesItsImportersStale() throws Exception {
+        write("../shared/_colors.scss", "$black: #000;");
+        write("../shared/_mixins.scss", "@import 'colors';");
+        write("base.scss", "@import '../shared/mixins';");
+        write("print.scss", "");
+
+        DependencyGraph previous = scan();
+        write("../shared/_colors.scss", "$black: #111111;");
+        DependencyGraph graph = scan();
+
+        assertEquals(asList(file("base.scss")), graph.getStaleEntryPoints(previous));
+        assertEquals(asList(file("base.scss"), file("print.scss")), graph.getEntryPoints());
+    }
+
+    @Test
+    public void resolvesImportsInTheImportPaths() throws Exception {
+        File shared = file("../shared").getCanonicalFile();
+        write("../shared/_colors.scss", "$black: #000;");
+        write("base.scss", "@import 'colors';");
+
+        DependencyGraph previous = scan(shared);
+        write("../shared/_colors.scss", "$black: #111111;");
+
+        assertEquals(Collections.singleton(new File(shared, "_colors.scss")), previous.getImports(file("base.scss")));
+        assertEquals(asList(file("base.scss")), scan(shared).getStaleEntryPoints(previous));
+    }
+
+    @Test
+    public void changingTheConfigMakesEveryEntryPointStale() throws Exception {
+        File config = file("../config.rb");
+        write("../config.rb", "sass_dir = 'sass'");
+        write("base.scss", "");
+        write("print.scss", "");
+
+        DependencyGraph previous = DependencyGraph.scan(sassDirectory, Collections.<File>emptyList(), config, false);
+        assertTrue(DependencyGraph.scan(sassDirectory, Collections.<File>emptyList(), config, false).getStaleEntryPoints(previous).isEmpty());
+
+        write("../config.rb", "sass_dir = 'sass'\noutput_style = :compressed");
+
+        assertEquals(asList(file("base.scss"), file("print.scss")),
+                DependencyGraph.scan(sassDirectory, Collections.<File>emptyList(), config, false).getStaleEntryPoints(previous));
+    }
+
+    private DependencyGraph scan(File... importPaths) throws Exception {
+        return DependencyGraph.scan(sassDirectory, asList(importPaths), null, false);
+    }
+
+    private DependencyGraph scan() throws Exception {
+        return DependencyGraph.scan(sassDirectory, false);
+    }
+
+    private File file(String path) {
+        return new File(sassDirectory, path);
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = file(path);
+        file.getParentFile().mkdirs();
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content.getBytes());
+        output.close();
+    }
+}
@@ -0,0 +1,71 @@
+package com.darrinholst.sass_java;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class DwellCompilePolicyTest {
+    @Test
+    public void compilesAtMostOncePerDwell() {
+        DwellCompilePolicy policy = new DwellCompilePolicy(1000, 60000);
+
+        assertTrue(policy.shouldCompile(10000));
+        assertFalse(policy.shouldCompile(10000));
+        assertFalse(policy.shouldCompile(10999));
+        assertTrue(policy.shouldCompile(11000));
+    }
+
+    @Test
+    public void backsOffAfterFailuresUntilACompileSucceeds() {
+        DwellCompilePolicy policy = new DwellCompilePolicy(1000, 5000);
+
+        assertTrue(policy.shouldCompile(0));
+        policy.compiled(0, false);
+        assertFalse(policy.shouldCompile(1999));
+        assertTrue(policy.shouldCompile(2000));
+
+        policy.compiled(2000, false);
+        assertFalse(policy.shouldCompile(5999));
+        assertTrue(policy.shouldCompile(6000));
+
+        policy.compiled(6000, false);
+        assertFalse(policy.shouldCompile(10999));
+        assertTrue(policy.shouldCompile(11000));
+
+        policy.compiled(11000, true);
+        assertTrue(policy.shouldCompile(12000));
+    }
+
+    @Test
+    public void skipsQuietHours() {
+        DwellCompilePolicy policy = new DwellCompilePolicy(1000, 60000);
+        policy.setQuietHours("22:00-06:00");
+
+        assertFalse(policy.shouldCompile(at(23, 30)));
+        assertFalse(policy.shouldCompile(at(5, 59)));
+        assertTrue(policy.shouldCompile(at(6, 0)));
+        assertTrue(policy.shouldCompile(at(21, 59)));
+    }
+
+    @Test
+    public void rejectsQuietHoursThatAreNotTimesOfDay() {
+        for (String quietHours : new String[]{"22-06", "25:00-06:00", "22:00-06:60"}) {
+            try {
+                new DwellCompilePolicy().setQuietHours(quietHours);
+                fail("expected " + quietHours + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private long at(int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2015, Calendar.JUNE, 1, hour, minute, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,47 @@
+package com.darrinholst.sass_java;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An engine that hands the source back as css, registered for the tests in
+ * META-INF/services.
+ */
+public class EchoEngine implements SassEngine {
+    private SassEngineConfig config;
+
+    public String getName() {
+        return "echo";
+    }
+
+    public void initialize(SassEngineConfig config) {
+        this.config = config;
+    }
+
+    public File getSassDirectory() {
+        return config.getConfigLocation().getParentFile();
+    }
+
+    public File getCssDirectory() {
+        return config.getConfigLocation().getParentFile();
+    }
+
+    public List<File> getImportPaths() {
+        return Collections.emptyList();
+    }
+
+    public void compileAll(File outputDirectory) {
+    }
+
+    public void compile(List<String> stale, List<String> removed, File outputDirectory) {
+    }
+
+    public CompileResult compile(String source, SassOptions options) {
+        return new CompileResult(source, null);
+    }
+
+    public void destroy() {
+        config = null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+
+public class EntryPointPartitionerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sassDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        sassDirectory = temporaryFolder.newFolder("sass").getCanonicalFile();
+    }
+
+    @Test
+    public void balancesBatchesByWhatEachStylesheetImports() throws Exception {
+        write("_framework.scss", 3000);
+        write("app.scss", "@import 'framework';");
+        write("admin.scss", 1000);
+        write("print.scss", 1000);
+        write("mail.scss", 500);
+
+        List<List<String>> batches = partition(asList("admin.scss", "app.scss", "mail.scss", "print.scss"), 2);
+
+        assertEquals(asList(asList("app.scss"), asList("admin.scss", "mail.scss", "print.scss")), batches);
+    }
+
+    @Test
+    public void neverMakesMoreBatchesThanThereAreStylesheets() throws Exception {
+        write("app.scss", 10);
+        write("print.scss", 10);
+
+        assertEquals(asList(asList("app.scss"), asList("print.scss")), partition(asList("app.scss", "print.scss"), 8));
+        assertEquals(asList(asList("app.scss", "print.scss")), partition(asList("app.scss", "print.scss"), 1));
+        assertEquals(0, partition(asList(new String[0]), 4).size());
+    }
+
+    private List<List<String>> partition(List<String> entryPoints, int batches) throws Exception {
+        return new EntryPointPartitioner(DependencyGraph.scan(sassDirectory, false)).partition(entryPoints, batches);
+    }
+
+    private void write(String name, int bytes) throws Exception {
+        StringBuilder content = new StringBuilder();
+
+        while (content.length() < bytes) {
+            content.append("a{}\n");
+        }
+
+        write(name, content.toString());
+    }
+
+    private void write(String name, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(sassDirectory, name), content);
+    }
+}
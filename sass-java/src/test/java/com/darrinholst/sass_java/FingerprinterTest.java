@@ -0,0 +1,121 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class FingerprinterTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cssDirectory;
+    private Fingerprinter fingerprinter = new Fingerprinter();
+
+    @Before
+    public void setup() throws Exception {
+        cssDirectory = temporaryFolder.newFolder("css");
+    }
+
+    @Test
+    public void copiesStylesheetsToFingerprintedNamesAndWritesAManifest() throws Exception {
+        write("app.css", "body{}");
+        write("admin/users.css", "p{}");
+
+        AssetManifest manifest = fingerprinter.fingerprint(cssDirectory);
+
+        String app = manifest.lookup("app.css");
+        assertTrue(app, app.matches("app-[0-9a-f]{8}\\.css"));
+        assertEquals("body{}", FileUtils.readFileToString(new File(cssDirectory, app)));
+        assertTrue(manifest.lookup("admin/users.css").startsWith("admin/users-"));
+        assertEquals(manifest.getEntries(), AssetManifest.read(new File(cssDirectory, AssetManifest.FILE_NAME)).getEntries());
+    }
+
+    @Test
+    public void fingerprintingAgainWithoutChangesIsStable() throws Exception {
+        write("app.css", "body{}");
+
+        AssetManifest first = fingerprinter.fingerprint(cssDirectory);
+        AssetManifest second = fingerprinter.fingerprint(cssDirectory);
+
+        assertEquals(first.getEntries(), second.getEntries());
+        assertEquals(sorted("app.css", first.lookup("app.css"), AssetManifest.FILE_NAME), listing());
+    }
+
+    @Test
+    public void removesCopiesOfPreviousContents() throws Exception {
+        write("app.css", "body{}");
+        String previous = fingerprinter.fingerprint(cssDirectory).lookup("app.css");
+
+        write("app.css", "body{color:red}");
+        String current = fingerprinter.fingerprint(cssDirectory).lookup("app.css");
+
+        assertFalse(previous.equals(current));
+        assertEquals(sorted("app.css", current, AssetManifest.FILE_NAME), listing());
+    }
+
+    @Test
+    public void removesCopiesOfDeletedStylesheets() throws Exception {
+        write("app.css", "body{}");
+        fingerprinter.fingerprint(cssDirectory);
+
+        assertTrue(new File(cssDirectory, "app.css").delete());
+        fingerprinter.fingerprint(cssDirectory);
+
+        assertEquals(sorted(AssetManifest.FILE_NAME), listing());
+    }
+
+    @Test
+    public void fingerprintingOneStylesheetLeavesTheOthersAlone() throws Exception {
+        write("app.css", "body{}");
+        write("admin/users.css", "p{}");
+        AssetManifest previous = fingerprinter.fingerprint(cssDirectory);
+
+        write("admin/users.css", "p{color:red}");
+        write("app.css", "body{color:red}");
+        AssetManifest manifest = fingerprinter.fingerprintStylesheet(cssDirectory, "admin/users.css");
+
+        assertEquals(previous.lookup("app.css"), manifest.lookup("app.css"));
+        assertFalse(previous.lookup("admin/users.css").equals(manifest.lookup("admin/users.css")));
+        assertEquals("p{color:red}", FileUtils.readFileToString(new File(cssDirectory, manifest.lookup("admin/users.css"))));
+        assertFalse(new File(cssDirectory, previous.lookup("admin/users.css")).exists());
+        assertEquals(manifest.getEntries(), AssetManifest.read(new File(cssDirectory, AssetManifest.FILE_NAME)).getEntries());
+    }
+
+    @Test
+    public void resolvesUrlsUnderTheCssDirectory() throws Exception {
+        write("app.css", "body{}");
+        AssetManifest manifest = fingerprinter.fingerprint(cssDirectory);
+        manifest.setUrlPrefix("/stylesheets");
+
+        assertEquals("/stylesheets/" + manifest.lookup("app.css"), manifest.url("/stylesheets/app.css"));
+        assertEquals("/stylesheets/other.css", manifest.url("/stylesheets/other.css"));
+    }
+
+    private List<String> listing() {
+        return sorted(cssDirectory.list());
+    }
+
+    private List<String> sorted(String... names) {
+        List<String> list = new ArrayList<String>(asList(names));
+        Collections.sort(list);
+        return list;
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(cssDirectory, path);
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(file, content);
+    }
+}
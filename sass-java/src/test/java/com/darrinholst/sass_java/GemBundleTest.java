@@ -0,0 +1,137 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class GemBundleTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File classPath;
+    private File unpacked;
+
+    @Before
+    public void setup() throws Exception {
+        classPath = temporaryFolder.newFolder("classpath");
+        unpacked = new File(temporaryFolder.getRoot(), "unpacked");
+        write("gems/sass-3.4.20/lib/sass.rb", "module Sass; end");
+        write("gems/sass-3.4.20/lib/sass/engine.rb", "# engine");
+        write("specifications/sass-3.4.20.gemspec", "# spec");
+    }
+
+    @Test
+    public void unpacksTheIndexedFilesAndPutsTheirRequirePathsOnTheLoadPath() throws Exception {
+        writeIndex();
+
+        List<String> loadPaths = GemBundle.find(classLoader()).unpack(unpacked);
+
+        assertEquals(1, loadPaths.size());
+        File lib = new File(loadPaths.get(0));
+        assertEquals("module Sass; end", FileUtils.readFileToString(new File(lib, "sass.rb")));
+        assertEquals("# engine", FileUtils.readFileToString(new File(lib, "sass/engine.rb")));
+        assertEquals(1, unpacked.list().length);
+    }
+
+    @Test
+    public void unpacksOnlyOnce() throws Exception {
+        writeIndex();
+        GemBundle.find(classLoader()).unpack(unpacked);
+        write("gems/sass-3.4.20/lib/sass.rb", "changed");
+
+        List<String> loadPaths = GemBundle.find(classLoader()).unpack(unpacked);
+
+        assertEquals("module Sass; end", FileUtils.readFileToString(new File(loadPaths.get(0), "sass.rb")));
+    }
+
+    @Test
+    public void unpackedGemsAreOnlyAccessibleToTheirOwner() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        writeIndex();
+
+        File lib = new File(GemBundle.find(classLoader()).unpack(unpacked).get(0));
+        File target = lib.getParentFile().getParentFile().getParentFile();
+
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(target.toPath())));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(unpacked.toPath())));
+    }
+
+    @Test
+    public void gemsOthersCanChangeAreUnpackedAgain() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        writeIndex();
+        File lib = new File(GemBundle.find(classLoader()).unpack(unpacked).get(0));
+        File target = lib.getParentFile().getParentFile().getParentFile();
+        Files.setPosixFilePermissions(target.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        FileUtils.writeStringToFile(new File(lib, "sass.rb"), "module Evil; end");
+
+        List<String> loadPaths = GemBundle.find(classLoader()).unpack(unpacked);
+
+        assertEquals("module Sass; end", FileUtils.readFileToString(new File(loadPaths.get(0), "sass.rb")));
+        assertEquals(1, unpacked.list().length);
+    }
+
+    @Test
+    public void gemsWithFilesThatDoNotMatchTheIndexAreUnpackedAgain() throws Exception {
+        writeIndex();
+        File lib = new File(GemBundle.find(classLoader()).unpack(unpacked).get(0));
+        FileUtils.writeStringToFile(new File(lib, "sass/engine.rb"), "# engine, changed");
+        assertTrue(new File(lib, "sass.rb").delete());
+
+        List<String> loadPaths = GemBundle.find(classLoader()).unpack(unpacked);
+
+        assertEquals("module Sass; end", FileUtils.readFileToString(new File(loadPaths.get(0), "sass.rb")));
+        assertEquals("# engine", FileUtils.readFileToString(new File(loadPaths.get(0), "sass/engine.rb")));
+        assertEquals(1, unpacked.list().length);
+    }
+
+    @Test
+    public void otherGemsAreUnpackedSomewhereElse() throws Exception {
+        writeIndex();
+        String first = GemBundle.find(classLoader()).unpack(unpacked).get(0);
+        write("gems/sass-3.4.21/lib/sass.rb", "module Sass; end");
+        FileUtils.writeStringToFile(new File(classPath, GemBundle.INDEX), "load_path gems/sass-3.4.21/lib\nfile 16 gems/sass-3.4.21/lib/sass.rb\n");
+
+        String second = GemBundle.find(classLoader()).unpack(unpacked).get(0);
+
+        assertTrue(second, !second.equals(first));
+        assertEquals(2, unpacked.list().length);
+    }
+
+    @Test
+    public void gemsThatWereNotIndexedAreNotFound() throws Exception {
+        assertNull(GemBundle.find(classLoader()));
+    }
+
+    private void writeIndex() throws Exception {
+        FileUtils.writeStringToFile(new File(classPath, GemBundle.INDEX),
+                "# written by index_gems.rb\n"
+                        + "load_path gems/sass-3.4.20/lib\n"
+                        + "file 16 gems/sass-3.4.20/lib/sass.rb\n"
+                        + "file 8 gems/sass-3.4.20/lib/sass/engine.rb\n"
+                        + "file 6 specifications/sass-3.4.20.gemspec\n");
+    }
+
+    private ClassLoader classLoader() throws Exception {
+        return new URLClassLoader(new URL[]{classPath.toURI().toURL()}, null);
+    }
+
+    private void write(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(classPath, path), content);
+    }
+}
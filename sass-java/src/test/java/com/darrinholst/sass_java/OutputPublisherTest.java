@@ -0,0 +1,149 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class OutputPublisherTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cssDirectory;
+    private OutputPublisher publisher;
+
+    @Before
+    public void setup() throws Exception {
+        cssDirectory = temporaryFolder.newFolder("css");
+        publisher = new OutputPublisher(cssDirectory);
+    }
+
+    @Test
+    public void movesStagedOutputIntoTheCssDirectory() throws Exception {
+        File staging = publisher.stage();
+        write(staging, "app.css", "body{}");
+        write(staging, "admin/users.css", "p{}");
+
+        publisher.publish(staging);
+
+        assertEquals("body{}", read(cssDirectory, "app.css"));
+        assertEquals("p{}", read(cssDirectory, "admin/users.css"));
+        assertFalse(staging.exists());
+        assertTrue(publisher.hasPublished());
+        assertEquals(asList("admin", "app.css"), sorted(cssDirectory.list()));
+    }
+
+    @Test
+    public void takesOverOutputsRecordedInTheCssDirectoryByEarlierVersions() throws Exception {
+        write(cssDirectory, "old.css", "p{}");
+        write(cssDirectory, ".sass-java-outputs", "old.css=");
+        assertTrue(publisher.hasPublished());
+
+        File staging = publisher.stage();
+        assertTrue(new File(staging, "old.css").delete());
+        write(staging, "app.css", "body{}");
+        publisher.publish(staging);
+
+        assertEquals(asList("app.css"), sorted(cssDirectory.list()));
+        assertTrue(new File(OutputPublisher.stateDirectoryOf(cssDirectory), OutputPublisher.OUTPUTS_FILE).isFile());
+    }
+
+    @Test
+    public void stagingStartsWithTheCurrentOutputs() throws Exception {
+        File first = publisher.stage();
+        write(first, "app.css", "body{}");
+        publisher.publish(first);
+
+        File second = publisher.stage();
+
+        assertEquals("body{}", read(second, "app.css"));
+        assertEquals(cssDirectory.getAbsoluteFile().getParentFile(), second.getParentFile());
+        publisher.discard(second);
+    }
+
+    @Test
+    public void removesOutputsThatWereNotPublishedAgainButNothingElse() throws Exception {
+        write(cssDirectory, "handwritten.css", "a{}");
+        File first = publisher.stage();
+        write(first, "app.css", "body{}");
+        write(first, "old.css", "p{}");
+        publisher.publish(first);
+
+        File second = publisher.stage();
+        new File(second, "old.css").delete();
+        publisher.publish(second);
+
+        assertTrue(new File(cssDirectory, "app.css").exists());
+        assertFalse(new File(cssDirectory, "old.css").exists());
+        assertEquals("a{}", read(cssDirectory, "handwritten.css"));
+    }
+
+    @Test
+    public void retainsEarlierGenerationsToRollBackTo() throws Exception {
+        publisher = new OutputPublisher(cssDirectory, 2);
+        publishApp("body{color:red}");
+        publishApp("body{color:green}");
+        publishApp("body{color:blue}");
+        publishApp("body{color:white}");
+
+        assertEquals(asList("2", "3"), sortedGenerations());
+
+        assertTrue(publisher.rollback());
+        assertEquals("body{color:blue}", read(cssDirectory, "app.css"));
+        assertTrue(publisher.rollback());
+        assertEquals("body{color:green}", read(cssDirectory, "app.css"));
+        assertFalse(publisher.rollback());
+        assertEquals("body{color:green}", read(cssDirectory, "app.css"));
+    }
+
+    @Test
+    public void rollingBackRemovesOutputsTheEarlierGenerationDidNotHave() throws Exception {
+        publisher = new OutputPublisher(cssDirectory, 1);
+        publishApp("body{}");
+
+        File staging = publisher.stage();
+        write(staging, "new.css", "p{}");
+        publisher.publish(staging);
+
+        assertTrue(publisher.rollback());
+        assertFalse(new File(cssDirectory, "new.css").exists());
+        assertEquals("body{}", read(cssDirectory, "app.css"));
+    }
+
+    private void publishApp(String css) throws Exception {
+        File staging = publisher.stage();
+        write(staging, "app.css", css);
+        publisher.publish(staging);
+    }
+
+    private List<String> sortedGenerations() {
+        return sorted(new File(temporaryFolder.getRoot(), ".css-generations").list());
+    }
+
+    private List<String> sorted(String[] names) {
+        List<String> sorted = new ArrayList<String>(asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private String read(File directory, String path) throws Exception {
+        return FileUtils.readFileToString(new File(directory, path));
+    }
+
+    private void write(File directory, String path, String content) throws Exception {
+        File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(file, content);
+    }
+}
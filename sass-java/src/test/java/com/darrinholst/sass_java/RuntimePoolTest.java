@@ -0,0 +1,95 @@
+package com.darrinholst.sass_java;
+
+import org.jruby.embed.LocalContextScope;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RuntimePoolTest {
+    private static final String INITIALIZATION = "$initialized = ($initialized || 0) + 1";
+
+    private RuntimePool pool;
+
+    @After
+    public void terminate() {
+        if (pool != null) {
+            pool.terminate();
+        }
+    }
+
+    @Test
+    public void runsTheInitializationScriptOncePerRuntime() {
+        pool = new RuntimePool(1, LocalContextScope.SINGLETHREAD, INITIALIZATION);
+
+        for (int i = 0; i < 3; i++) {
+            RuntimePool.PooledRuntime runtime = pool.borrow();
+            assertEquals(1L, runtime.run("$initialized"));
+            pool.release(runtime);
+        }
+    }
+
+    @Test
+    public void lendsEachRuntimeToOneBorrowerAtATime() {
+        pool = new RuntimePool(2, LocalContextScope.SINGLETHREAD, INITIALIZATION);
+
+        RuntimePool.PooledRuntime first = pool.borrow();
+        RuntimePool.PooledRuntime second = pool.borrow();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        assertSame(first, pool.borrow());
+    }
+
+    @Test
+    public void borrowingFromAnExhaustedPoolWaitsForARelease() throws Exception {
+        pool = new RuntimePool(1, LocalContextScope.SINGLETHREAD, INITIALIZATION);
+        RuntimePool.PooledRuntime borrowed = pool.borrow();
+        final AtomicReference<RuntimePool.PooledRuntime> waited = new AtomicReference<RuntimePool.PooledRuntime>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        new Thread(new Runnable() {
+            public void run() {
+                waited.set(pool.borrow());
+                done.countDown();
+            }
+        }).start();
+
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        pool.release(borrowed);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertSame(borrowed, waited.get());
+    }
+
+    @Test
+    public void runtimesReleasedAfterTerminatingAreDropped() {
+        pool = new RuntimePool(1, LocalContextScope.SINGLETHREAD, INITIALIZATION);
+        RuntimePool.PooledRuntime borrowed = pool.borrow();
+
+        pool.terminate();
+        pool.release(borrowed);
+
+        RuntimePool.PooledRuntime next = pool.borrow();
+        assertNotSame(borrowed, next);
+        assertEquals(1L, next.run("$initialized"));
+    }
+
+    @Test
+    public void rejectsMoreThanOneSingletonRuntime() {
+        try {
+            new RuntimePool(2, LocalContextScope.SINGLETON, INITIALIZATION);
+            fail("expected a pool of singleton runtimes to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("SINGLETON"));
+        }
+    }
+}
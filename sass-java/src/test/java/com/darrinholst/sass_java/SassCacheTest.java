@@ -0,0 +1,69 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SassCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setup() throws Exception {
+        Clock.setDelegate(new Clock());
+        directory = temporaryFolder.newFolder("sass-cache");
+    }
+
+    @Test
+    public void removesWhatWasCachedLongestAgoUntilUnderTheLimit() throws Exception {
+        File oldest = write("a1b2/base.scssc", 400, 3);
+        File older = write("c3d4/layout.scssc", 400, 2);
+        File newer = write("c3d4/print.scssc", 400, 1);
+
+        assertEquals(800, new SassCache(directory, 900).trim());
+
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+        assertTrue(oldest.getParentFile().isDirectory());
+    }
+
+    @Test
+    public void leavesTheCacheAloneWhileUnderTheLimit() throws Exception {
+        File entry = write("a1b2/base.scssc", 400, 3);
+
+        assertEquals(0, new SassCache(directory, 1000).trim());
+        assertEquals(0, new SassCache(directory, 0).trim());
+        assertTrue(entry.exists());
+    }
+
+    @Test
+    public void neverRemovesWhatWasJustWritten() throws Exception {
+        File old = write("a1b2/base.scssc", 400, 3);
+        File recent = write("a1b2/base.scssc20150601-123-abc", 400, 0);
+
+        new SassCache(directory, 100).trim();
+
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+    }
+
+    private File write(String path, int bytes, int hoursAgo) throws Exception {
+        File file = new File(directory, path);
+        FileUtils.writeStringToFile(file, new String(new char[bytes]).replace('\0', 'a'));
+        assertTrue(file.setLastModified(System.currentTimeMillis() - hoursAgo * HOUR));
+        return file;
+    }
+}
@@ -11,15 +11,26 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 import static com.darrinholst.sass_java.SassCompilingFilter.*;
 import static java.util.Arrays.asList;
@@ -114,6 +125,183 @@ public class SassCompilingFilterTest {
         assertEquals(Arrays.asList(request, otherRequest), captor.getAllValues());
     }
 
+    @Test
+    public void serveStaleOnlyBlocksStylesheetRequestsWhileCompiling() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 2000L);
+        filter.setCompiler(compiler);
+        HttpServletRequest stylesheet = httpRequest("/css/foo.css");
+        HttpServletRequest page = httpRequest("/index.html");
+
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(SERVE_STALE_PARAM, "true");
+        clock.incrementSeconds(1);
+
+        Thread thread = processRequestOnAnotherThread(stylesheet);
+        waitForCompiles(compiler, 2);
+        runFilter(page);
+
+        assertTrue("stylesheet request should still be waiting", thread.isAlive());
+        verify(filterChain).doFilter(page, servletResponse);
+        verify(filterChain, never()).doFilter(stylesheet, servletResponse);
+
+        thread.join();
+        verify(filterChain).doFilter(stylesheet, servletResponse);
+    }
+
+    @Test
+    public void asyncWaitParksRequestsUntilTheCompileFinishes() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 500L);
+        filter.setCompiler(compiler);
+        HttpServletRequest parkedRequest = httpRequest("/css/foo.css");
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(parkedRequest.isAsyncSupported()).thenReturn(true);
+        when(parkedRequest.startAsync(parkedRequest, servletResponse)).thenReturn(asyncContext);
+        when(servletContext.getMajorVersion()).thenReturn(3);
+
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(ASYNC_WAIT_PARAM, "true");
+        clock.incrementSeconds(1);
+
+        Thread thread = processRequestOnAnotherThread(httpRequest("/css/bar.css"));
+        waitForCompiles(compiler, 2);
+        runFilter(parkedRequest);
+
+        verify(asyncContext).setTimeout(DEFAULT_ASYNC_TIMEOUT);
+        verify(asyncContext, never()).dispatch();
+        verify(filterChain, never()).doFilter(parkedRequest, servletResponse);
+
+        thread.join();
+        verify(asyncContext).dispatch();
+    }
+
+    @Test
+    public void jmxExposesHowLongRequestsWaitedForCompiles() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 500L);
+        filter.setCompiler(compiler);
+        when(filterConfig.getFilterName()).thenReturn("sass");
+        when(servletContext.getContextPath()).thenReturn("/app");
+
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(JMX_PARAM, "true");
+
+        Thread thread = processRequestOnAnotherThread(servletRequest);
+        waitForCompiles(compiler, 2);
+        runFilter(mock(ServletRequest.class));
+        thread.join();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.darrinholst.sass_java:type=CompileMetrics,name=\"/app/sass\"");
+
+        assertEquals(1L, server.getAttribute(name, "RequestWaitCount"));
+        assertTrue((Double) server.getAttribute(name, "MaxRequestWaitMillis") > 0);
+
+        filter.destroy();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void cachedStylesheetsAreServedFromMemoryUntilTheNextCompile() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        addCssFile("foo", "body{}");
+        initFilter(CACHE_STYLESHEETS_PARAM, "true");
+
+        assertEquals("body{}", serveStylesheet("/css/foo.css"));
+
+        addCssFile("foo", "p{}");
+        assertEquals("body{}", serveStylesheet("/css/foo.css"));
+
+        clock.incrementSeconds(1);
+        assertEquals("p{}", serveStylesheet("/css/foo.css"));
+        verify(filterChain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @Test
+    public void cachedStylesheetsAnswerConditionalRequests() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        addCssFile("foo", "body{}");
+        initFilter(CACHE_STYLESHEETS_PARAM, "true");
+
+        HttpServletRequest request = stylesheetRequest("/css/foo.css");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(new ByteArrayOutputStream()));
+        runFilter(request, response);
+
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq("ETag"), etag.capture());
+
+        HttpServletRequest conditional = stylesheetRequest("/css/foo.css");
+        when(conditional.getHeader("If-None-Match")).thenReturn(etag.getValue());
+        HttpServletResponse notModified = mock(HttpServletResponse.class);
+        runFilter(conditional, notModified);
+
+        verify(notModified).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(notModified, never()).getOutputStream();
+    }
+
+    @Test
+    public void precompressedVariantsAreServedToClientsThatAcceptThem() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        addCssFile("foo", "body{}");
+        new Precompressor(Arrays.<Compressor>asList(new GzipCompressor())).precompress(fullPathOf(CSS_LOCATION));
+        initFilter(PRECOMPRESS_PARAM, "true");
+
+        HttpServletRequest request = stylesheetRequest("/css/foo.css");
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(content));
+        runFilter(request, response);
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        GZIPInputStream unzipped = new GZIPInputStream(new ByteArrayInputStream(content.toByteArray()));
+        assertEquals("body{}", new Scanner(unzipped).useDelimiter("\\A").next());
+
+        assertEquals("body{}", serveStylesheet("/css/foo.css"));
+    }
+
+    @Test
+    public void fingerprintedStylesheetsArePublishedAndServedAsImmutable() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        addCssFile("foo", "body{}");
+        String fingerprinted = new Fingerprinter().fingerprint(fullPathOf(CSS_LOCATION)).lookup("foo.css");
+        initFilter(FINGERPRINT_PARAM, "true", CSS_LOCATION_PARAM, CSS_LOCATION);
+
+        ArgumentCaptor<AssetManifest> manifest = ArgumentCaptor.forClass(AssetManifest.class);
+        verify(servletContext).setAttribute(eq(AssetManifest.ATTRIBUTE), manifest.capture());
+        assertEquals("/css/" + fingerprinted, manifest.getValue().url("/css/foo.css"));
+
+        HttpServletRequest request = stylesheetRequest("/css/" + fingerprinted);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(new ByteArrayOutputStream()));
+        runFilter(request, response);
+
+        verify(response).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+
+        HttpServletRequest missing = stylesheetRequest("/css/bar-01234567.css");
+        HttpServletResponse notFound = mock(HttpServletResponse.class);
+        runFilter(missing, notFound);
+
+        verify(notFound, never()).setHeader(eq("Cache-Control"), anyString());
+        verify(filterChain).doFilter(missing, notFound);
+    }
+
+    @Test
+    public void missingStylesheetsAreLeftToTheContainer() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(CACHE_STYLESHEETS_PARAM, "true");
+
+        HttpServletRequest request = stylesheetRequest("/css/missing.css");
+        runFilter(request);
+
+        verify(filterChain).doFilter(request, servletResponse);
+    }
+
     @Test
     public void compiles() throws Exception {
         setupDefaultDirectoriesAndConfigFile();
@@ -221,6 +409,307 @@ public class SassCompilingFilterTest {
         assertEquals(expected, contentsOf(fullPathOf(CSS_LOCATION), "base.css").trim());
     }
 
+    @Test
+    public void sourceMapsCanBeTurnedOffRegardlessOfConfig() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: red}");
+
+        initAndRunFilter(SOURCE_MAPS_PARAM, "false");
+
+        assertEquals(asList("foo.css"), directoryListing(CSS_LOCATION));
+        assertFalse(contentsOf(fullPathOf(CSS_LOCATION), "foo.css").contains("sourceMappingURL"));
+    }
+
+    @Test
+    public void inlineSourceMapsCarryTheirSources() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: red}");
+
+        initAndRunFilter(SOURCE_MAPS_INLINE_PARAM, "true", SOURCE_MAPS_EMBED_SOURCES_PARAM, "true");
+
+        assertEquals(asList("foo.css"), directoryListing(CSS_LOCATION));
+        String css = contentsOf(fullPathOf(CSS_LOCATION), "foo.css");
+        String prefix = "sourceMappingURL=data:application/json;charset=utf-8;base64,";
+        String map = new String(Base64.getDecoder().decode(css.substring(css.indexOf(prefix) + prefix.length(), css.lastIndexOf(" */"))), "UTF-8");
+        assertTrue(map, map.contains("\"sourcesContent\""));
+        assertTrue(map, map.contains("body {color: red}"));
+    }
+
+    @Test
+    public void stylesheetsTooBigForTheCacheAreStreamedFromDisk() throws Exception {
+        filter.setCompiler(new StubCompiler(1L, 1L));
+        setupDefaultDirectoriesAndConfigFile();
+        addCssFile("foo", "body{color:red}");
+        initFilter(CACHE_STYLESHEETS_PARAM, "true", STYLESHEET_CACHE_MAX_BYTES_PARAM, "4");
+
+        HttpServletRequest request = stylesheetRequest("/css/foo.css");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(content));
+        runFilter(request, response);
+
+        assertEquals("body{color:red}", content.toString());
+        verify(response).setContentLength(15);
+        verify(response).setHeader(eq("ETag"), startsWith("W/"));
+    }
+
+    @Test
+    public void clusterModePublishesStagedOutputAndSkipsChangesAnotherNodeCompiled() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: red}");
+
+        initFilter(CLUSTER_PARAM, "true");
+
+        assertEquals(asList("foo.css", "foo.css.map"), sorted(directoryListing(CSS_LOCATION)));
+        assertEquals(asList(".css-sass-java", "WEB-INF", "css"), sorted(asList(new File(webAppRoot).list())));
+        File css = new File(fullPathOf(CSS_LOCATION), "foo.css");
+        assertTrue(css.setLastModified(1000000000000L));
+
+        SassCompilingFilter otherNode = new SassCompilingFilter();
+        otherNode.init(filterConfig);
+        otherNode.destroy();
+
+        assertEquals(1000000000000L, css.lastModified());
+    }
+
+    @Test
+    public void atomicPublishKeepsEarlierGenerations() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: red}");
+
+        initFilter(ATOMIC_PUBLISH_PARAM, "true", RETAINED_GENERATIONS_PARAM, "1");
+
+        File source = new File(fullPathOf(SASS_LOCATION), "foo.scss");
+        assertTrue(source.delete());
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: blue}");
+        clock.incrementSeconds(1);
+        runFilter();
+
+        assertTrue(contentsOf(fullPathOf(CSS_LOCATION), "foo.css").startsWith("body{color:blue}"));
+        assertTrue(contentsOf(new File(webAppRoot, ".css-generations/1"), "foo.css").startsWith("body{color:red}"));
+        assertEquals(asList(".css-generations", ".css-sass-java", "WEB-INF", "css"), sorted(asList(new File(webAppRoot).list())));
+    }
+
+    @Test
+    public void lazyModeOnlyCompilesTheRequestedStylesheetWhenItIsStale() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        File sassDirectory = fullPathOf(SASS_LOCATION);
+        addScssFileTo(sassDirectory, "_colors", "$color: #000;");
+        addScssFileTo(sassDirectory, "foo", "@import 'colors';\nbody {color: $color}");
+        addScssFileTo(sassDirectory, "bar", "a {color: red}");
+
+        initFilter(LAZY_PARAM, "true");
+        assertDirectoryEmpty(CSS_LOCATION);
+
+        runFilter(stylesheetRequest("/css/foo.css"));
+        assertEquals(asList("foo.css", "foo.css.map"), directoryListing(CSS_LOCATION));
+
+        File css = new File(fullPathOf(CSS_LOCATION), "foo.css");
+        long future = System.currentTimeMillis() + 60000;
+        assertTrue(css.setLastModified(future));
+        runFilter(stylesheetRequest("/css/foo.css"));
+        assertEquals(future / 1000, css.lastModified() / 1000);
+
+        File partial = new File(sassDirectory, "_colors.scss");
+        assertTrue(partial.delete());
+        addScssFileTo(sassDirectory, "_colors", "$color: #fff;");
+        assertTrue(partial.setLastModified(future + 60000));
+        runFilter(stylesheetRequest("/css/foo.css"));
+
+        assertTrue(contentsOf(fullPathOf(CSS_LOCATION), "foo.css").contains("body{color:#fff}"));
+        assertEquals(asList("foo.css", "foo.css.map"), directoryListing(CSS_LOCATION));
+    }
+
+    @Test
+    public void lazyModeCompilesAgainWhenAPartialChangesWithinTheSameSecond() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        File sassDirectory = fullPathOf(SASS_LOCATION);
+        addScssFileTo(sassDirectory, "_colors", "$color: #000;");
+        addScssFileTo(sassDirectory, "foo", "@import 'colors';\nbody {color: $color}");
+        initFilter(LAZY_PARAM, "true", SOURCE_MAPS_PARAM, "false");
+
+        runFilter(stylesheetRequest("/css/foo.css"));
+        File css = new File(fullPathOf(CSS_LOCATION), "foo.css");
+        File partial = new File(sassDirectory, "_colors.scss");
+        FileUtils.writeStringToFile(partial, "$color: #fafafa;");
+        assertTrue(partial.setLastModified(css.lastModified()));
+        runFilter(stylesheetRequest("/css/foo.css"));
+
+        assertTrue(contentsOf(fullPathOf(CSS_LOCATION), "foo.css").contains("body{color:#fafafa}"));
+    }
+
+    @Test
+    public void lazyModeOnlyPostProcessesTheRequestedStylesheet() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo", "body {color: red}");
+        FileUtils.writeStringToFile(new File(fullPathOf(CSS_LOCATION), "other.css"), "p{margin:0}");
+        initFilter(LAZY_PARAM, "true", SOURCE_MAPS_PARAM, "false", FINGERPRINT_PARAM, "true");
+
+        runFilter(stylesheetRequest("/css/foo.css"));
+
+        AssetManifest manifest = AssetManifest.read(new File(fullPathOf(CSS_LOCATION), AssetManifest.FILE_NAME));
+        assertEquals(Collections.singleton("foo.css"), manifest.getEntries().keySet());
+        assertEquals(asList(manifest.lookup("foo.css"), "foo.css", AssetManifest.FILE_NAME, "other.css"), sorted(directoryListing(CSS_LOCATION)));
+    }
+
+    @Test(expected = ServletException.class)
+    public void lazyModeCannotBeCombinedWithAtomicPublishing() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+
+        initFilter(LAZY_PARAM, "true", ATOMIC_PUBLISH_PARAM, "true");
+    }
+
+    @Test(expected = ServletException.class)
+    public void lazyModeCannotBeCombinedWithACompilePolicy() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+
+        initFilter(LAZY_PARAM, "true", COMPILE_DWELL_PARAM, "60000");
+    }
+
+    @Test
+    public void watchModeCompilesWhenSassChangesInsteadOfOnRequests() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 1L, 1L);
+        filter.setCompiler(compiler);
+
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(WATCH_PARAM, "true", WATCH_DEBOUNCE_PARAM, "10");
+
+        clock.incrementSeconds(5);
+        runFilter();
+        assertEquals(1, compiler.getNumberOfCompiles());
+
+        addScssFileTo(fullPathOf(SASS_LOCATION), "foo");
+        waitForCompiles(compiler, 2);
+        runFilter();
+
+        assertEquals(2, compiler.getNumberOfCompiles());
+        filter.destroy();
+    }
+
+    @Test
+    public void watchModeCompilesWhenPartialsInTheImportPathsChange() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 1L, 1L);
+        filter.setCompiler(compiler);
+
+        setupDefaultDirectoriesAndConfigFile();
+        File shared = new File(fullPathOf(SASS_LOCATION).getParentFile(), "shared");
+        assertTrue(shared.mkdirs());
+        File config = new File(fullPathOf(SASS_LOCATION), "config.rb");
+        FileUtils.writeStringToFile(config, FileUtils.readFileToString(config) + "additional_import_paths = ['../shared']\n");
+        initFilter(WATCH_PARAM, "true", WATCH_DEBOUNCE_PARAM, "10");
+
+        clock.incrementSeconds(5);
+        runFilter();
+        assertEquals(1, compiler.getNumberOfCompiles());
+
+        addScssFileTo(shared, "_colors", "$brand: #369;");
+        waitForCompiles(compiler, 2);
+
+        assertEquals(2, compiler.getNumberOfCompiles());
+        filter.destroy();
+    }
+
+    @Test
+    public void bundlesAreMinifiedAndFingerprintedWithTheirMembers() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "base", "body {color: red}");
+        addScssFileTo(fullPathOf(SASS_LOCATION), "layout", "p {margin: 0}");
+
+        initAndRunFilter(BUNDLES_PARAM, "site.css=base.css,layout.css", SOURCE_MAPS_PARAM, "false", FINGERPRINT_PARAM, "true");
+
+        assertEquals("body{color:red}\np{margin:0}\n", contentsOf(fullPathOf(CSS_LOCATION), "site.css"));
+        String fingerprinted = AssetManifest.read(new File(fullPathOf(CSS_LOCATION), AssetManifest.FILE_NAME)).lookup("site.css");
+        assertEquals(contentsOf(fullPathOf(CSS_LOCATION), "site.css"), contentsOf(fullPathOf(CSS_LOCATION), fingerprinted));
+    }
+
+    @Test
+    public void themeVariantsAreCompiledFromWhitelistedRequestParameters() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "_theme", "$brand: red !default;\na {color: $brand}");
+        initFilter(THEME_STYLESHEET_PARAM, "_theme.scss", THEME_VARIABLES_PARAM, "brand");
+
+        HttpServletRequest request = stylesheetRequest("/css/_theme.css");
+        when(request.getParameter("brand")).thenReturn("#336699");
+        when(request.getParameter("other")).thenReturn("blue");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(content));
+
+        runFilter(request, response);
+
+        assertEquals("a{color:#369}\n", content.toString());
+        verify(filterChain, never()).doFilter(request, response);
+
+        when(request.getParameter("brand")).thenReturn("red;}body{color:red");
+        runFilter(request, response);
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+    }
+
+    @Test
+    public void themeVariantsOverTheLimitAreUnavailable() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "_theme", "$brand: red !default;\na {color: $brand}");
+        initFilter(THEME_STYLESHEET_PARAM, "_theme.scss", THEME_VARIABLES_PARAM, "brand", THEME_MAX_VARIANTS_PARAM, "1");
+
+        HttpServletRequest request = stylesheetRequest("/css/_theme.css");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(new ByteArrayOutputStream()));
+        when(request.getParameter("brand")).thenReturn("#336699");
+        runFilter(request, response);
+
+        when(request.getParameter("brand")).thenReturn("green");
+        runFilter(request, response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(filterChain, never()).doFilter(request, response);
+    }
+
+    @Test
+    public void compileOnceOnlyCompilesAtInit() throws Exception {
+        StubCompiler compiler = new StubCompiler(1L, 1L);
+        filter.setCompiler(compiler);
+
+        setupDefaultDirectoriesAndConfigFile();
+        initFilter(COMPILE_ONCE_PARAM, "true");
+
+        clock.incrementSeconds(5);
+        runFilter();
+
+        assertEquals(1, compiler.getNumberOfCompiles());
+        verify(filterChain).doFilter(servletRequest, servletResponse);
+    }
+
+    @Test
+    public void stylesheetsAreCompiledInParallelWithMoreThanOneRuntime() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "_colors", "$brand: #369;");
+        addScssFileTo(fullPathOf(SASS_LOCATION), "app", "@import 'colors';\na {color: $brand}");
+        addScssFileTo(fullPathOf(SASS_LOCATION), "admin", "p {margin: 0}");
+        addScssFileTo(fullPathOf(SASS_LOCATION), "print", "body {color: #000}");
+
+        initAndRunFilter(RUNTIME_POOL_SIZE_PARAM, "2", PARALLELISM_PARAM, "2", SOURCE_MAPS_PARAM, "false");
+
+        assertEquals("a{color:#369}\n", contentsOf(fullPathOf(CSS_LOCATION), "app.css"));
+        assertEquals("p{margin:0}\n", contentsOf(fullPathOf(CSS_LOCATION), "admin.css"));
+        assertEquals("body{color:#000}\n", contentsOf(fullPathOf(CSS_LOCATION), "print.css"));
+        filter.destroy();
+    }
+
+    @Test
+    public void parsedStylesheetsAreCachedInTheGivenLocation() throws Exception {
+        setupDefaultDirectoriesAndConfigFile();
+        addScssFileTo(fullPathOf(SASS_LOCATION), "_colors", "$brand: #369;");
+        addScssFileTo(fullPathOf(SASS_LOCATION), "app", "@import 'colors';\na {color: $brand}");
+        File cacheLocation = temporaryFolder.newFolder("sass-cache");
+
+        initAndRunFilter(SASS_CACHE_LOCATION_PARAM, cacheLocation.getAbsolutePath(), SOURCE_MAPS_PARAM, "false");
+
+        assertEquals("a{color:#369}\n", contentsOf(fullPathOf(CSS_LOCATION), "app.css"));
+        assertEquals(2, FileUtils.listFiles(cacheLocation, new String[]{"scssc"}, true).size());
+        assertFalse(new File(fullPathOf(SASS_LOCATION), ".sass-cache").exists());
+        filter.destroy();
+    }
+
     @Test
     public void multipleThreads() throws Exception {
         setupDefaultDirectoriesAndConfigFile();
@@ -279,6 +768,53 @@ public class SassCompilingFilterTest {
         return thread;
     }
 
+    private String serveStylesheet(String path) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStreamFor(content));
+
+        runFilter(stylesheetRequest(path), response);
+
+        return content.toString();
+    }
+
+    private HttpServletRequest stylesheetRequest(String path) {
+        HttpServletRequest request = httpRequest(path);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServletPath()).thenReturn(path);
+        when(request.getDateHeader(anyString())).thenReturn(-1L);
+        when(servletContext.getRealPath(path)).thenReturn(new File(webAppRoot, path).getAbsolutePath());
+        when(servletContext.getRealPath(path + ".gz")).thenReturn(new File(webAppRoot, path + ".gz").getAbsolutePath());
+        return request;
+    }
+
+    private ServletOutputStream outputStreamFor(final ByteArrayOutputStream content) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                content.write(b);
+            }
+        };
+    }
+
+    private void addCssFile(String name, String content) throws Exception {
+        FileOutputStream output = new FileOutputStream(new File(fullPathOf(CSS_LOCATION), name + ".css"));
+        output.write(content.getBytes());
+        output.close();
+    }
+
+    private HttpServletRequest httpRequest(String uri) {
+        HttpServletRequest request = mock(HttpServletRequest.class, uri);
+        when(request.getRequestURI()).thenReturn(uri);
+        return request;
+    }
+
+    private void waitForCompiles(StubCompiler compiler, int compiles) throws InterruptedException {
+        for (int i = 0; i < 500 && compiler.getNumberOfCompiles() < compiles; i++) {
+            Thread.sleep(10L);
+        }
+    }
+
     private String contentsOf(File directory, String filename) throws Exception {
         return FileUtils.readFileToString(new File(directory, filename));
     }
@@ -301,8 +837,12 @@ public class SassCompilingFilterTest {
     }
 
     private void runFilter(ServletRequest request) {
+        runFilter(request, servletResponse);
+    }
+
+    private void runFilter(ServletRequest request, ServletResponse response) {
         try {
-            filter.doFilter(request, servletResponse, filterChain);
+            filter.doFilter(request, response, filterChain);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -362,13 +902,19 @@ public class SassCompilingFilterTest {
         }
     }
 
+    private List<String> sorted(List<String> names) {
+        List<String> sorted = new ArrayList<String>(names);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     private List<String> directoryListing(String directoryName) {
         return asList(fullPathOf(directoryName).list());
     }
 
     private class StubCompiler extends Compiler {
         private ArrayList<Long> compileTimes = new ArrayList<Long>();
-        private int i;
+        private volatile int i;
 
         private StubCompiler(Long... compileTimes) {
             this.compileTimes.addAll(Arrays.asList(compileTimes));
@@ -382,6 +928,11 @@ public class SassCompilingFilterTest {
             }
         }
 
+        @Override
+        public File getSassDirectory() {
+            return fullPathOf(SASS_LOCATION);
+        }
+
         public int getNumberOfCompiles() {
             return i;
         }
@@ -0,0 +1,64 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Base64;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+public class SourceMapInlinerTest {
+    private static final String PREFIX = "/*# sourceMappingURL=data:application/json;charset=utf-8;base64,";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cssDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        cssDirectory = temporaryFolder.newFolder("css");
+    }
+
+    @Test
+    public void replacesTheMapReferenceWithADataUriAndRemovesTheMap() throws Exception {
+        write("admin/app.css", "body{color:red}\n\n/*# sourceMappingURL=app.css.map */\n");
+        write("admin/app.css.map", "{\"version\": 3}");
+
+        new SourceMapInliner().inline(cssDirectory);
+
+        String css = read("admin/app.css");
+        assertEquals("body{color:red}\n\n" + PREFIX, css.substring(0, css.indexOf(",") + 1));
+        assertEquals("{\"version\": 3}", decode(css));
+        assertFalse(new File(cssDirectory, "admin/app.css.map").exists());
+    }
+
+    @Test
+    public void leavesStylesheetsWithoutAMapAlone() throws Exception {
+        write("app.css", "body{}");
+
+        new SourceMapInliner().inline(cssDirectory);
+
+        assertEquals("body{}", read("app.css"));
+    }
+
+    private String decode(String css) {
+        String encoded = css.substring(css.indexOf(PREFIX) + PREFIX.length(), css.lastIndexOf(" */"));
+        return new String(Base64.getDecoder().decode(encoded));
+    }
+
+    private String read(String path) throws Exception {
+        return FileUtils.readFileToString(new File(cssDirectory, path));
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(cssDirectory, path);
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(file, content);
+    }
+}
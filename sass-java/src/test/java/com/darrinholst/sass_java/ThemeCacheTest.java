@@ -0,0 +1,59 @@
+package com.darrinholst.sass_java;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ThemeCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File spill;
+
+    @Before
+    public void setup() throws Exception {
+        spill = temporaryFolder.newFolder("themes");
+    }
+
+    @Test
+    public void removesTheVariantsUsedLongestAgoFromTheSpillDirectory() throws Exception {
+        ThemeCache cache = new ThemeCache(1024 * 1024, spill, 1000);
+        cache.put("v1-blue", new byte[400]);
+        cache.put("v1-green", new byte[400]);
+        age("v1-blue", 3);
+        age("v1-green", 2);
+        assertNotNull(new ThemeCache(1024 * 1024, spill, 1000).get("v1-blue"));
+
+        cache.put("v1-red", new byte[400]);
+
+        assertTrue(new File(spill, "v1-blue.css").isFile());
+        assertFalse(new File(spill, "v1-green.css").exists());
+        assertTrue(new File(spill, "v1-red.css").isFile());
+        assertNull(new ThemeCache(1024 * 1024, spill, 1000).get("v1-green"));
+    }
+
+    @Test
+    public void keepsEverySpilledVariantWithoutALimit() throws Exception {
+        ThemeCache cache = new ThemeCache(1024 * 1024, spill, 0);
+        cache.put("v1-blue", new byte[400]);
+        cache.put("v1-green", new byte[400]);
+
+        assertTrue(new File(spill, "v1-blue.css").isFile());
+        assertTrue(new File(spill, "v1-green.css").isFile());
+    }
+
+    private void age(String key, int hours) {
+        File file = new File(spill, key + ".css");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - hours * HOUR));
+    }
+}
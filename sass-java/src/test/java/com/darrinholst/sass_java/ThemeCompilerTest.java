@@ -0,0 +1,250 @@
+package com.darrinholst.sass_java;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ThemeCompilerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sassDirectory;
+    private File stylesheet;
+    private EchoCompiler compiler;
+
+    @Before
+    public void setup() throws Exception {
+        sassDirectory = temporaryFolder.newFolder("sass");
+        stylesheet = new File(sassDirectory, "theme.scss");
+        FileUtils.writeStringToFile(stylesheet, "$brand: red !default;\na { color: $brand; }");
+        compiler = new EchoCompiler(sassDirectory);
+    }
+
+    @Test
+    public void compilesEachVariantOnce() throws Exception {
+        ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+
+        String css = new String(themes.get(theme("brand", "#336699")).getContent(), "UTF-8");
+        themes.get(theme("brand", "#336699"));
+        themes.get(theme("brand", "green"));
+
+        assertEquals("$brand: #336699;\n$brand: red !default;\na { color: $brand; }", css);
+        assertEquals(2, compiler.compiles.get());
+    }
+
+    @Test
+    public void concurrentRequestsForAVariantWaitForTheSameCompile() throws Exception {
+        compiler.delay = 200;
+        final ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+        final CountDownLatch latch = new CountDownLatch(4);
+        final List<StylesheetCache.Entry> entries = Collections.synchronizedList(new ArrayList<StylesheetCache.Entry>());
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.countDown();
+                        latch.await();
+                        entries.add(themes.get(theme("brand", "blue")));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, compiler.compiles.get());
+        assertEquals(4, entries.size());
+        assertSame(entries.get(0), entries.get(3));
+    }
+
+    @Test
+    public void changedSourcesAreCompiledAgainOnceInvalidated() throws Exception {
+        ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+        themes.get(theme("brand", "blue"));
+
+        FileUtils.writeStringToFile(stylesheet, "$brand: red !default;\nb { color: $brand; }");
+        stylesheet.setLastModified(stylesheet.lastModified() + 5000);
+        themes.get(theme("brand", "blue"));
+        assertEquals(1, compiler.compiles.get());
+
+        themes.invalidate();
+        themes.get(theme("brand", "blue"));
+        assertEquals(2, compiler.compiles.get());
+    }
+
+    @Test
+    public void spilledVariantsAreReadBackInsteadOfCompiled() throws Exception {
+        File spill = temporaryFolder.newFolder("themes");
+        new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024, spill)).get(theme("brand", "blue"));
+
+        ThemeCompiler restarted = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024, spill));
+        String css = new String(restarted.get(theme("brand", "blue")).getContent(), "UTF-8");
+
+        assertEquals(1, compiler.compiles.get());
+        assertEquals("$brand: blue;\n$brand: red !default;\na { color: $brand; }", css);
+    }
+
+    @Test
+    public void rejectsValuesThatAreNotPlainValues() throws Exception {
+        ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+
+        for (String value : new String[]{"red; } body { color: red", "red /* x", "#{red}", ""}) {
+            try {
+                themes.get(theme("brand", value));
+                fail("expected " + value + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        try {
+            themes.get(theme("brand: red; $other", "red"));
+            fail("expected the name to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(0, compiler.compiles.get());
+    }
+
+    @Test
+    public void rejectsVariantsOverTheLimitUntilTheSourcesChange() throws Exception {
+        ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+        themes.setMaxVariants(2);
+        themes.get(theme("brand", "blue"));
+        themes.get(theme("brand", "green"));
+
+        try {
+            themes.get(theme("brand", "red"));
+            fail("expected the variant to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        themes.get(theme("brand", "blue"));
+        assertEquals(2, compiler.compiles.get());
+
+        FileUtils.writeStringToFile(stylesheet, "$brand: red !default;\nb { color: $brand; }");
+        stylesheet.setLastModified(stylesheet.lastModified() + 5000);
+        themes.invalidate();
+        themes.get(theme("brand", "red"));
+        assertEquals(3, compiler.compiles.get());
+    }
+
+    @Test
+    public void failedCompilesDoNotCountTowardsTheLimit() throws Exception {
+        ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+        themes.setMaxVariants(1);
+        compiler.error = "Undefined variable: \"$accent\"";
+
+        try {
+            themes.get(theme("brand", "blue"));
+            fail("expected the compile to fail");
+        } catch (RuntimeException e) {
+            assertEquals("Undefined variable: \"$accent\"", e.getMessage());
+        }
+
+        compiler.error = null;
+        themes.get(theme("brand", "green"));
+        assertEquals(2, compiler.compiles.get());
+    }
+
+    @Test
+    public void rejectsVariantsWhileTooManyAreCompiling() throws Exception {
+        compiler.delay = 2000;
+        final ThemeCompiler themes = new ThemeCompiler(compiler, stylesheet, new ThemeCache(1024 * 1024));
+        themes.setMaxConcurrentCompiles(1);
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    themes.get(theme("brand", "blue"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        first.start();
+        assertTrue(compiler.compiling.await(10, TimeUnit.SECONDS));
+
+        try {
+            themes.get(theme("brand", "green"));
+            fail("expected the variant to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        first.join();
+        compiler.delay = 0;
+        themes.get(theme("brand", "green"));
+        assertEquals(2, compiler.compiles.get());
+    }
+
+    private Map<String, String> theme(String name, String value) {
+        Map<String, String> theme = new TreeMap<String, String>();
+        theme.put(name, value);
+        return theme;
+    }
+
+    private static class EchoCompiler extends Compiler {
+        private final File sassDirectory;
+        private final AtomicInteger compiles = new AtomicInteger();
+        private final CountDownLatch compiling = new CountDownLatch(1);
+        private volatile long delay;
+        private volatile String error;
+
+        private EchoCompiler(File sassDirectory) {
+            this.sassDirectory = sassDirectory;
+        }
+
+        @Override
+        public CompileResult compile(String source, SassOptions options) {
+            compiles.incrementAndGet();
+            compiling.countDown();
+
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new CompileResult(source, null);
+        }
+
+        @Override
+        public File getSassDirectory() {
+            return sassDirectory;
+        }
+    }
+}